@@ -146,7 +146,7 @@ public class ADS1SecurityManager extends SecurityManager {
         checkOrigin("Set Socket/ServerSocket/URL Factory");
     }
 
-    @Override
+    // kein @Override: die Methode gibt es nur bis Java 10, danach prueft checkPermission()
     public void checkSystemClipboardAccess() {
         checkOrigin("SystemClipboard access");
     }
@@ -0,0 +1,262 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+
+/**
+ * Best-first version of the search: always expands the open node with the smallest lower bound.
+ *
+ * Open nodes are kept in a frontier of primitive arrays: the facilities of the assigned customers are bit-packed
+ * into a fixed number of ints per node and a binary heap orders the nodes by lower bound. The frontier never uses
+ * more than the configured number of bytes; children that do not fit any more are searched right away by a
+ * depth-first dive (CFLP.iterativeBranchAndBound) instead.
+ */
+class BestFirstSearch {
+
+    /**
+     * Solver whose bounds and incumbent are used.
+     */
+    private final CFLP cflp;
+
+    /*
+     * Open nodes
+     */
+    private final Frontier frontier;
+
+    /*
+     * Decoded partial solution of the node that is expanded
+     */
+    private final int[] partial;
+
+    /**
+     * @param CFLP cflp
+     * @param long maxBytes
+     * O(1)
+     */
+    BestFirstSearch(CFLP cflp, long maxBytes) {
+        this.cflp = cflp;
+        this.partial = new int[cflp.getNumCustomers()];
+        this.frontier = new Frontier(cflp.getNumCustomers(), cflp.getNumFacilities(), maxBytes);
+    }
+
+    /**
+     * Searches the whole tree starting with the empty solution of the given state.
+     *
+     * @param SearchState state
+     * O(customers^facilities) worst case, O(customers) per expanded node for restoring the state
+     */
+    void solve(SearchState state) {
+        int customers = this.cflp.getNumCustomers();
+
+        Arrays.fill(this.partial, -1);
+        this.frontier.push(state.lowerBound(), 0, this.partial);
+
+        // a cancelled search drops the open nodes, the incumbent stays the result
+        while (!this.frontier.isEmpty() && !this.cflp.cancelled()) {
+            long lower = this.frontier.minLower();
+
+            // every open node is at least as expensive as the incumbent, so the incumbent is optimal
+            AbstractCFLP.BnBSolution best = this.cflp.getBestSolution();
+            if (best != null && lower >= best.getUpperBound()) { return; }
+
+            int customer = this.frontier.pop(this.partial);
+            state.reset(this.partial);
+
+            if (this.cflp.bound(state, customer)) {
+                state.leave(customer);
+                continue;
+            }
+
+            for (int i = 0; i < this.cflp.getNumFacilities(); i++) {
+                int f = this.cflp.preference(customer, i);
+                if (!state.allowed(customer, f)) { continue; }
+
+                state.assign(customer, f);
+
+                if (customer + 1 == customers) {
+                    // leaves are not stored, bounding them registers their solution
+                    this.cflp.bound(state, customer + 1);
+                    state.leave(customer + 1);
+                } else if (!this.frontier.isFull()) {
+                    // the bound of the parent also holds for the child
+                    this.partial[customer] = f;
+                    this.frontier.push(Math.max(lower, state.lowerBound()), customer + 1, this.partial);
+                    this.partial[customer] = -1;
+                } else {
+                    // frontier is full: dive into the child depth first
+                    this.cflp.iterativeBranchAndBound(state, customer + 1);
+                }
+
+                state.unassign(customer);
+            }
+
+            state.leave(customer);
+        }
+    }
+
+    /**
+     * Memory-bounded min-heap of partial solutions (prefixes of the branching order) keyed by their lower bound.
+     */
+    private static final class Frontier {
+
+        /*
+         * Bits per assigned facility and ints per packed node
+         */
+        private final int bits;
+        private final int words;
+
+        /*
+         * Maximum number of nodes within the memory limit
+         */
+        private final int capacity;
+
+        /*
+         * Per slot: packed facilities, number of assigned customers and lower bound
+         */
+        private int[] packed;
+        private int[] depths;
+        private long[] lowers;
+
+        /*
+         * Heap of slot indices ordered by lowers, and the stack of free slots
+         */
+        private int[] heap;
+        private int size;
+        private int[] free;
+        private int freeSize;
+
+        /*
+         * Number of slots allocated so far (the arrays grow up to capacity)
+         */
+        private int allocated;
+
+        /**
+         * @param int  customers
+         * @param int  facilities
+         * @param long maxBytes
+         * O(1)
+         */
+        private Frontier(int customers, int facilities, long maxBytes) {
+            this.bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(facilities - 1));
+            this.words = (int) (((long) customers * this.bits + 31) / 32);
+
+            // packed words + depth + lower + heap entry + free entry
+            long bytesPerNode = 4L * this.words + 4 + 8 + 4 + 4;
+            this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE / Math.max(this.words, 1), maxBytes / bytesPerNode));
+
+            this.allocated = Math.min(this.capacity, 1024);
+            this.packed = new int[this.allocated * this.words];
+            this.depths = new int[this.allocated];
+            this.lowers = new long[this.allocated];
+            this.heap = new int[this.allocated];
+            this.free = new int[this.allocated];
+            for (int i = 0; i < this.allocated; i++) {
+                this.free[this.freeSize++] = this.allocated - 1 - i;
+            }
+        }
+
+        private boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        private boolean isFull() {
+            return this.size == this.capacity;
+        }
+
+        private long minLower() {
+            return this.lowers[this.heap[0]];
+        }
+
+        /**
+         * Stores the first depth facilities of the solution.
+         *
+         * @param long  lower
+         * @param int   depth
+         * @param int[] solution
+         * O(customers + log(size)), amortized for growing
+         */
+        private void push(long lower, int depth, int[] solution) {
+            if (this.freeSize == 0) {
+                this.grow();
+            }
+
+            int slot = this.free[--this.freeSize];
+            int base = slot * this.words;
+            Arrays.fill(this.packed, base, base + this.words, 0);
+            for (int c = 0; c < depth; c++) {
+                long bit = (long) c * this.bits;
+                this.packed[base + (int) (bit >>> 5)] |= solution[c] << (bit & 31);
+                if ((bit & 31) + this.bits > 32) {
+                    this.packed[base + (int) (bit >>> 5) + 1] |= solution[c] >>> (32 - (bit & 31));
+                }
+            }
+            this.depths[slot] = depth;
+            this.lowers[slot] = lower;
+
+            // sift up
+            int i = this.size++;
+            for (; i > 0 && this.lowers[this.heap[(i - 1) / 2]] > lower; i = (i - 1) / 2) {
+                this.heap[i] = this.heap[(i - 1) / 2];
+            }
+            this.heap[i] = slot;
+        }
+
+        /**
+         * Removes the node with the smallest lower bound and decodes it into solution (-1 for unassigned).
+         *
+         * @param int[] solution
+         * @return The number of assigned customers of the node
+         * O(customers + log(size))
+         */
+        private int pop(int[] solution) {
+            int slot = this.heap[0];
+            int last = this.heap[--this.size];
+
+            // sift down
+            int i = 0;
+            for (int child = 1; child < this.size; i = child, child = 2 * i + 1) {
+                if (child + 1 < this.size && this.lowers[this.heap[child + 1]] < this.lowers[this.heap[child]]) {
+                    child++;
+                }
+                if (this.lowers[this.heap[child]] >= this.lowers[last]) { break; }
+                this.heap[i] = this.heap[child];
+            }
+            this.heap[i] = last;
+
+            int base = slot * this.words;
+            int depth = this.depths[slot];
+            int mask = (int) ((1L << this.bits) - 1);
+            Arrays.fill(solution, -1);
+            for (int c = 0; c < depth; c++) {
+                long bit = (long) c * this.bits;
+                long value = this.packed[base + (int) (bit >>> 5)] >>> (bit & 31);
+                if ((bit & 31) + this.bits > 32) {
+                    value |= (long) this.packed[base + (int) (bit >>> 5) + 1] << (32 - (bit & 31));
+                }
+                solution[c] = (int) value & mask;
+            }
+
+            this.free[this.freeSize++] = slot;
+            return depth;
+        }
+
+        /**
+         * Doubles the number of slots, at most up to the capacity.
+         *
+         * O(allocated * words)
+         */
+        private void grow() {
+            int grown = (int) Math.min(this.capacity, 2L * this.allocated);
+
+            this.packed = Arrays.copyOf(this.packed, grown * this.words);
+            this.depths = Arrays.copyOf(this.depths, grown);
+            this.lowers = Arrays.copyOf(this.lowers, grown);
+            this.heap = Arrays.copyOf(this.heap, grown);
+            this.free = Arrays.copyOf(this.free, grown);
+            for (int slot = grown - 1; slot >= this.allocated; slot--) {
+                this.free[this.freeSize++] = slot;
+            }
+
+            this.allocated = grown;
+        }
+    }
+}
@@ -1,89 +1,1190 @@
 package ad2.ss17.cflp;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class CFLP extends AbstractCFLP {
 
     /**
-     * CFLPInstance to solve.
+     * CFLPInstance to solve, its customers in branching order.
      */
     private CFLPInstance cflp;
 
+    /*
+     * The instance as given, solutions are registered in its customer order
+     */
+    private final CFLPInstance instance;
+
+    /*
+     * Order in which the customers are branched on, and for static orders the original customer at each position
+     * of this.cflp (null for the index order)
+     */
+    private Order order = Order.INDEX;
+    private int[] customerOrder;
+
+    /**
+     * 2D-Array with the order of preferred Facilities for each customer.
+     * (preferences[c][0] returns closest facility for customer c)
+     */
+    private int[][] preferences;
+
+    /*
+     * Shortest distance for every customer to some facility
+     */
+    private int[] shortestDistances;
+
+    /*
+     * Quick and dirty access to this.cflp.getNumFacilities()
+     */
+    private int gnf;
+
+    /*
+     * Quick and dirty access to this.cflp.getNumCustomers()
+     */
+    private int gnc;
+
+    /*
+     * How the tree is traversed
+     */
+    private Search search = Search.RECURSIVE;
+
+    /*
+     * levelRates[f][level]: cheapest opening costs per additional bandwidth when raising f from that level
+     */
+    private double[][] levelRates;
+
+    /*
+     * Whether the lower bound charges opening costs for bandwidth that exceeds the open levels
+     */
+    private boolean capacityBound = true;
+
+    /*
+     * Whether a heuristic solution is computed before the tree search
+     */
+    private boolean warmStart = true;
+
+    /*
+     * Subgradient iterations of the Lagrangian bound per node, 0 disables it
+     */
+    private int lagrangianIterations = 0;
+
+    /*
+     * Deepest customer whose node computes the Lagrangian bound, -1 picks one automatically
+     */
+    private int lagrangianDepth = -1;
+
+    /*
+     * Dominance and symmetry rules shared by all search states, null if disabled
+     */
+    private Dominance dominance;
+    private boolean dominanceRules = true;
+
+    /*
+     * Memory limit of the transposition table of every search state in bytes, 0 disables it
+     */
+    private long transpositionBytes = 0;
+
+    /*
+     * Memory limit of the frontier of the best-first search in bytes
+     */
+    private long frontierBytes = 64L << 20;
+
+    /*
+     * Whether the search counts nodes, prunes and incumbents, and whether it also emits them as JFR events
+     */
+    private boolean collectStats = false;
+    private boolean jfr = false;
+
+    /*
+     * Incumbent timeline and counters outside of search states, and the counters of every state handed out
+     */
+    private final SearchStats stats = new SearchStats();
+    private final List<SearchStats> stateStats = Collections.synchronizedList(new ArrayList<SearchStats>());
+
+    /*
+     * Listeners for new incumbents and the publisher of the current run that notifies them
+     */
+    private final List<IncumbentListener> listeners = new CopyOnWriteArrayList<IncumbentListener>();
+    private IncumbentPublisher publisher = new IncumbentPublisher(this.listeners);
+
+    /*
+     * System.nanoTime() when run() started
+     */
+    private long startNanos = System.nanoTime();
+
+    /*
+     * Stops the search when cancel() is called or the time limit is over
+     */
+    private final CancellationToken token = new CancellationToken();
+
+    /**
+     * Longest time limit, the deadline in nanoseconds has to fit into a long.
+     */
+    public static final long MAX_TIME_LIMIT_MILLIS = Long.MAX_VALUE / 1000 / 1000;
+
+    /*
+     * Time limit of run() in milliseconds, 0 means none
+     */
+    private long timeLimitMillis = 0;
+
+    /*
+     * Nodes run() may search before it stops like cancel() does, 0 means no limit
+     */
+    private long nodeLimit = 0;
+
+    /*
+     * Number of threads searching the tree, 1 runs the plain recursion
+     */
+    private int workers = 1;
+
+    /*
+     * Customer depth up to which the parallel search splits the tree into tasks, -1 picks one automatically
+     */
+    private int splitDepth = -1;
+
+    /*
+     * Role of this process in a search over several processes, null if it searches alone
+     */
+    private DistributedBranchAndBound distributed;
+
+    /*
+     * Identifies the instance in checkpoints, see SearchCheckpoint.fingerprint()
+     */
+    private final long fingerprint;
+
+    /*
+     * Checkpoints: whether the search publishes its position (only the sequential depth-first search of a static
+     * order has one), whether a new position was asked for, whether the search stopped publishing because it was
+     * cancelled, the last published position and whether the whole tree was searched
+     */
+    private boolean positions;
+    private volatile boolean checkpointRequested;
+    private boolean stopped;
+    private volatile int[] position;
+    private volatile boolean complete;
+
+    /*
+     * Nodes and time of the runs before the checkpoint this one resumes
+     */
+    private long resumedNodes;
+    private long resumedNanos;
+
+    /**
+     * Creates a new CFLP instance.
+     *
+     * @param  CFLPInstance instance
+     * O(customer*facilities^2) because of the sort in this.setPreferencs(), O(facilities*levels*(levels until overflow)) for the rates
+     * O(customers*facilities*Dominance.MAX_CANDIDATES) for the dominance rules, O(customers*facilities) for the fingerprint
+     */
+    public CFLP(CFLPInstance instance) {
+        this.instance = instance;
+        this.cflp = instance;
+
+        // quick access to the number of facilities and customers
+        this.gnf = this.cflp.getNumFacilities();
+        this.gnc = this.cflp.getNumCustomers();
+        this.fingerprint = SearchCheckpoint.fingerprint(instance);
+
+        this.setOrder(this.order);
+    }
+
+    /**
+     * Computes everything the search needs from this.cflp.
+     *
+     * O(customer*facilities^2) because of the sort in this.setPreferencs(), O(facilities*levels*(levels until overflow)) for the rates
+     */
+    private void prepare() {
+        this.storeShortestDistances();
+
+        this.setPreferences();
+
+        this.storeLevelRates();
+
+        this.storeDominance();
+    }
+
+    /**
+     * Creates the dominance rules if enabled, only the exact ones that don't need a fixed order for a dynamic order.
+     *
+     * O(customers*facilities*Dominance.MAX_CANDIDATES)
+     */
+    private void storeDominance() {
+        this.dominance = this.dominanceRules ? new Dominance(this.cflp, this.order != Order.DYNAMIC) : null;
+    }
+
+    /**
+     * Runs the branch and bound algorithm to determine a solution.
+     */
+    @Override
+    public void run() {
+        this.startNanos = System.nanoTime();
+        this.publisher = new IncumbentPublisher(this.listeners);
+        if (this.timeLimitMillis > 0) {
+            this.token.setDeadline(this.startNanos + this.timeLimitMillis * 1000 * 1000);
+        }
+        if (this.nodeLimit > 0) {
+            this.token.setNodeLimit(this.nodeLimit);
+        }
+
+        // the publisher thread must end even if the search fails
+        try {
+            // Default solution is that no customer is assigned to a facility
+            int[] solution = new int[this.cflp.getNumCustomers()];
+            Arrays.fill(solution, -1);
+
+            // a resumed run that was complete only has to report the incumbent
+            if (this.complete) { return; }
+
+            if (this.warmStart) {
+                this.warmStart();
+            }
+
+            this.positions = this.search != Search.BEST_FIRST && this.search != Search.FACILITY_FIRST
+                    && this.workers <= 1 && this.order != Order.DYNAMIC && this.distributed == null;
+            if (this.distributed != null) {
+                this.distributed.solve(this.newState());
+            } else if (this.search == Search.BEST_FIRST) {
+                new BestFirstSearch(this, this.frontierBytes).solve(this.newState());
+            } else if (this.search == Search.FACILITY_FIRST) {
+                new FacilityFirstSearch(this, this.cflp, this.levelRates).solve(this.newState());
+            } else if (this.workers > 1) {
+                new ParallelBranchAndBound(this, this.workers, this.splitDepth(this.workers)).solve(solution);
+            } else if (this.positions && this.position != null && this.search == Search.ITERATIVE) {
+                this.iterativeResume(this.newState(), this.position);
+            } else if (this.positions && this.position != null) {
+                this.resume(this.newState(), this.position, 0);
+            } else {
+                this.search(this.newState(), 0);
+            }
+
+            this.complete = !this.token.isCancelled();
+
+            if (this.jfr) {
+                SearchEvents.summary(this.getStats());
+            }
+        } finally {
+            this.publisher.close();
+        }
+    }
+
+    /**
+     * Nodes searched so far by all states and worker processes. (read without synchronization, so slightly behind for
+     * other threads, and for workers as of the last subtree they reported)
+     *
+     * O(states)
+     */
+    private long nodes() {
+        long nodes = 0;
+        synchronized (this.stateStats) {
+            for (SearchStats stats : this.stateStats) {
+                nodes += stats.nodes;
+            }
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Registers a listener that is notified of every new best solution from now on, without blocking the search.
+     *
+     * @param IncumbentListener listener
+     * O(listeners)
+     */
+    public void addIncumbentListener(IncumbentListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * @param IncumbentListener listener
+     * O(listeners)
+     */
+    public void removeIncumbentListener(IncumbentListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Listeners run on a thread of their own, so their exceptions can't reach the caller of run(). The first one of
+     * the current (or last) run is kept instead, the other listeners are still notified.
+     *
+     * @return The first exception a listener threw, null if none
+     * O(1)
+     */
+    public RuntimeException getListenerFailure() {
+        return this.publisher.failure();
+    }
+
+    /**
+     * Stops the search of run() cooperatively: it returns within a few nodes and keeps the incumbent found so far.
+     * Can be called from any thread, also before run().
+     *
+     * O(1)
+     */
+    public void cancel() {
+        this.token.cancel();
+    }
+
+    /**
+     * @return Whether the search was cancelled (by cancel() or the time limit), i.e. the incumbent may not be optimal
+     * O(1)
+     */
+    public boolean isCancelled() {
+        return this.token.isCancelled();
+    }
+
+    /**
+     * Sets the time after which run() stops the search like cancel() does.
+     *
+     * @param long millis (0 for no limit, at most MAX_TIME_LIMIT_MILLIS)
+     * O(1)
+     */
+    public void setTimeLimit(long millis) {
+        if (millis < 0 || millis > MAX_TIME_LIMIT_MILLIS) {
+            throw new IllegalArgumentException("The time limit must be between 0 and " + MAX_TIME_LIMIT_MILLIS + "ms");
+        }
+
+        this.timeLimitMillis = millis;
+    }
+
+    /**
+     * Asks the search to publish its current position at its next node, for the next call of checkpoint().
+     * Can be called from any thread, also before run().
+     *
+     * O(1)
+     */
+    public void requestCheckpoint() {
+        this.checkpointRequested = true;
+    }
+
+    /**
+     * Snapshot of the search for a later run of the same instance: the incumbent, the last position published after
+     * requestCheckpoint() (or where a cancelled search stopped) and the work done so far. Can be called from any
+     * thread, the search is not interrupted.
+     *
+     * @return The checkpoint
+     * O(customers)
+     */
+    public SearchCheckpoint checkpoint() {
+        // every incumbent is set before the volatile writes of complete and position, so one read after them is at
+        // least as good as every solution before the position
+        boolean complete = this.complete;
+        int[] position = complete ? null : this.position;
+        BnBSolution best = this.getBestSolution();
+
+        return new SearchCheckpoint(this.instance.getNumCustomers(), this.fingerprint, this.order.ordinal(),
+                best == null ? -1 : best.getUpperBound(), best == null ? null : best.getBestSolution(),
+                position == null ? null : position.clone(), complete,
+                this.resumedNodes + (this.collectStats ? this.nodes() : 0),
+                this.resumedNanos + System.nanoTime() - this.startNanos);
+    }
+
+    /**
+     * Continues the search of a checkpoint in the next run(): its incumbent becomes the first one and the search
+     * skips everything before its position. (The position is only used with the same order, otherwise the whole tree
+     * is searched again.) Must be called before run() and after setOption().
+     *
+     * @param SearchCheckpoint checkpoint
+     * @throws IllegalArgumentException if the checkpoint belongs to another instance
+     * O(customers)
+     */
+    public void resume(SearchCheckpoint checkpoint) {
+        if (checkpoint.getFingerprint() != this.fingerprint) {
+            throw new IllegalArgumentException("The checkpoint belongs to another instance");
+        }
+
+        int[] solution = checkpoint.getSolution();
+        if (solution != null && this.setSolution(checkpoint.getCost(), solution) && this.collectStats) {
+            this.stats.addIncumbent(0, checkpoint.getCost(), "checkpoint");
+        }
+
+        this.complete = checkpoint.isComplete();
+        this.position = checkpoint.getOrder() == this.order.ordinal() ? checkpoint.getPath() : null;
+        this.resumedNodes = checkpoint.getNodes();
+        this.resumedNanos = checkpoint.getElapsedNanos();
+    }
+
+    /**
+     * Counters and incumbent timeline of the search so far, see setOption("stats", ...).
+     *
+     * @return The statistics of all search states added up, null if disabled
+     * O(states + improvements)
+     */
+    public SearchStats getStats() {
+        if (!this.collectStats) { return null; }
+
+        SearchStats total = new SearchStats();
+        total.cancelled = this.token.isCancelled();
+        total.jfrFailure = this.jfr ? SearchEvents.failure() : null;
+        total.add(this.stats);
+        synchronized (this.stateStats) {
+            for (SearchStats stats : this.stateStats) {
+                total.add(stats);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Searches the subtree of the given state depth first with the configured traversal.
+     *
+     * @param SearchState state
+     * @param int         customer
+     * O(customers^facilities) worst case
+     */
+    void search(SearchState state, int customer) {
+        if (this.order == Order.DYNAMIC) {
+            if (this.search == Search.ITERATIVE) {
+                this.iterativeDynamicBranchAndBound(state, customer);
+            } else {
+                this.dynamicBranchAndBound(state, customer);
+            }
+            return;
+        }
+
+        switch (this.search) {
+            case ITERATIVE: {
+                this.iterativeBranchAndBound(state, customer);
+                break;
+            }
+            default: {
+                this.branchAndBound(state, customer);
+            }
+        }
+    }
+
+    /**
+     * Sets a named search option, used by Main for "--key=value" arguments.
+     *
+     * @param String key
+     * @param String value
+     * O(1)
+     */
+    public void setOption(String key, String value) {
+        switch (key) {
+            case "search": {
+                Search search = Search.parse(value);
+                // the instance is known, so it is rejected here instead of failing in run()
+                String unsupported = search == Search.FACILITY_FIRST ? FacilityFirstSearch.unsupported(this.instance) : null;
+                if (unsupported != null) {
+                    throw new IllegalArgumentException("Option search=" + value + ": " + unsupported);
+                }
+                this.search = search;
+                break;
+            }
+            case "capacity-bound": {
+                this.capacityBound = Boolean.parseBoolean(value);
+                break;
+            }
+            case "warm-start": {
+                this.warmStart = Boolean.parseBoolean(value);
+                break;
+            }
+            case "lagrangian": {
+                this.lagrangianIterations = (int) parseOption(key, value, 0, Integer.MAX_VALUE);
+                break;
+            }
+            case "lagrangian-depth": {
+                this.lagrangianDepth = (int) parseOption(key, value, -1, Integer.MAX_VALUE);
+                break;
+            }
+            case "dominance": {
+                this.dominanceRules = Boolean.parseBoolean(value);
+                this.storeDominance();
+                break;
+            }
+            case "order": {
+                this.setOrder(Order.parse(value));
+                break;
+            }
+            case "transposition-mb": {
+                // at most as many megabytes as fit into a long in bytes
+                this.transpositionBytes = parseOption(key, value, 0, Long.MAX_VALUE >> 20) << 20;
+                break;
+            }
+            case "frontier-mb": {
+                // at most as many megabytes as fit into a long in bytes
+                this.frontierBytes = parseOption(key, value, 0, Long.MAX_VALUE >> 20) << 20;
+                break;
+            }
+            case "stats": {
+                this.collectStats = Boolean.parseBoolean(value);
+                break;
+            }
+            case "jfr": {
+                this.jfr = Boolean.parseBoolean(value);
+                this.collectStats |= this.jfr;
+                break;
+            }
+            case "workers": {
+                this.setWorkers((int) parseOption(key, value, 1, Integer.MAX_VALUE));
+                break;
+            }
+            case "split-depth": {
+                this.setSplitDepth((int) parseOption(key, value, -1, Integer.MAX_VALUE));
+                break;
+            }
+            case "time-limit-ms": {
+                this.setTimeLimit(parseOption(key, value, 0, MAX_TIME_LIMIT_MILLIS));
+                break;
+            }
+            case "node-limit": {
+                this.nodeLimit = parseOption(key, value, 0, Long.MAX_VALUE);
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+    }
+
+    /**
+     * Parses the number of an option and checks its range.
+     *
+     * @param String key
+     * @param String value
+     * @param long   min
+     * @param long   max
+     * @return The number, an IllegalArgumentException if it is none or out of range
+     * O(1)
+     */
+    private static long parseOption(String key, String value, long min, long max) {
+        String message = "Option " + key + " must be between " + min + " and " + max + ": " + value;
+
+        long number;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(message, e);
+        }
+        if (number < min || number > max) {
+            throw new IllegalArgumentException(message);
+        }
+
+        return number;
+    }
+
+    /**
+     * Sets the order in which the customers are branched on. Static orders renumber the customers of the instance
+     * the search works on (solutions are registered in the original numbering), so every traversal uses them and
+     * the search itself costs the same. The dynamic order is used by the depth first searches (also below the split
+     * depth of the parallel search), the best-first search keeps the index order.
+     *
+     * @param Order order
+     * O(customers*facilities^2) for preparing the renumbered instance
+     */
+    void setOrder(Order order) {
+        this.order = order;
+        this.customerOrder = order.sort(this.instance);
+        this.cflp = this.customerOrder == null ? this.instance : this.renumbered(this.customerOrder);
+
+        this.prepare();
+    }
+
+    /**
+     * Copy of the instance whose i-th customer is the customer order[i] of the original one.
+     *
+     * @param int[] order
+     * O(customers*facilities)
+     */
+    private CFLPInstance renumbered(int[] order) {
+        int[] bandwidths = new int[this.gnc];
+        int[][] distances = new int[this.gnf][this.gnc];
+        for (int i = 0; i < this.gnc; i++) {
+            bandwidths[i] = this.instance.bandwidthOf(order[i]);
+            for (int f = 0; f < this.gnf; f++) {
+                distances[f][i] = this.instance.distance(f, order[i]);
+            }
+        }
+
+        CFLPInstance renumbered = new CFLPInstance(this.instance.maxBandwidths.clone(), this.instance.distanceCosts,
+                this.instance.openingCosts.clone(), bandwidths, distances);
+
+        return this.instance instanceof CompactCFLPInstance ? new CompactCFLPInstance(renumbered) : renumbered;
+    }
+
+    /**
+     * Sets the number of threads that search the tree in parallel.
+     *
+     * @param int workers
+     * O(1)
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+
+        this.workers = workers;
+    }
+
+    /**
+     * Sets the customer depth up to which the parallel search splits the tree into tasks. (-1 means automatic)
+     *
+     * @param int splitDepth
+     * O(1)
+     */
+    public void setSplitDepth(int splitDepth) {
+        if (splitDepth < -1) {
+            throw new IllegalArgumentException("The split depth must be at least -1");
+        }
+
+        this.splitDepth = splitDepth;
+    }
+
+    /**
+     * Makes run() search together with other processes: as coordinator it splits the tree into subtrees for the
+     * given number of workers, as worker it searches the subtrees it is given. DistributedProtocol sends them between
+     * the processes, which need the same instance and options. Must be called before run().
+     *
+     * @param boolean coordinator
+     * @param int     processes (number of workers, only for the coordinator)
+     * @return The queues of subtrees for DistributedProtocol
+     * O(1)
+     */
+    DistributedBranchAndBound distribute(boolean coordinator, int processes) {
+        // workers can't steal from each other, so more and smaller subtrees balance the load
+        this.distributed = new DistributedBranchAndBound(this, coordinator, coordinator ? this.splitDepth(4 * processes) : 0);
+
+        return this.distributed;
+    }
+
+    /**
+     * Registers the solution of the construction and local search heuristic as first incumbent. It stops when the
+     * search is cancelled and gets at most a tenth of the time limit, the rest is left for the tree search.
+     *
+     * O(customers * facilities^2 + customers^2) per improvement round, see WarmStart
+     */
+    private void warmStart() {
+        WarmStart heuristic = new WarmStart(this.cflp, this.token, this.timeLimitMillis * 1000 * 1000 / 10);
+        long cost = heuristic.solve();
+
+        if (cost < Integer.MAX_VALUE) {
+            this.register((int) cost, heuristic.solution(), null, "warm start");
+        }
+    }
+
+    /**
+     * Depth-first search of the subtree below the given customer, the bounds are updated incrementally in the state.
+     *
+     * @param SearchState state
+     * @param int         customer
+     * O(customers^facilities) worst case, O(1) per node
+     */
+    void branchAndBound(SearchState state, int customer) {
+        // if we can bound the subtree we do so
+        if (this.bound(state, customer)) { return; }
+
+        for (int i = 0; i < this.gnf; i++) {
+            if (!state.allowed(customer, this.preferences[customer][i])) { continue; }
+
+            state.assign(customer, this.preferences[customer][i]);
+
+            // branch to the next customer, recursion means depth first
+            this.branchAndBound(state, customer + 1);
+
+            state.unassign(customer);
+        }
+
+        state.leave(customer);
+    }
+
+    /**
+     * Same search as branchAndBound(SearchState, int), but every node branches on the unassigned customer with the
+     * largest regret (see SearchState.mostConstrained()) instead of the next one by index.
+     *
+     * @param SearchState state
+     * @param int         depth (number of assigned customers)
+     * O(customers^facilities) worst case, O(customers * facilities) per node
+     */
+    void dynamicBranchAndBound(SearchState state, int depth) {
+        // if we can bound the subtree we do so, with every customer assigned the bounds are equal
+        if (this.bound(state, depth)) { return; }
+
+        // -1 if the search was cancelled during the selection
+        int customer = state.mostConstrained(this.token);
+        for (int i = 0; i < this.gnf && customer >= 0; i++) {
+            if (!state.allowed(customer, this.preferences[customer][i])) { continue; }
+
+            state.assign(customer, this.preferences[customer][i]);
+
+            this.dynamicBranchAndBound(state, depth + 1);
+
+            state.unassign(customer);
+        }
+
+        state.leave(depth);
+    }
+
+    /**
+     * Same search as dynamicBranchAndBound(SearchState, int) without recursion, like iterativeBranchAndBound(): the
+     * customer chosen at every depth is kept on the explicit stack state.branched next to its next child.
+     *
+     * @param SearchState state
+     * @param int         root (number of assigned customers)
+     * O(customers^facilities) worst case, O(customers * facilities) per node
+     */
+    void iterativeDynamicBranchAndBound(SearchState state, int root) {
+        int[] branches = state.branches;
+        int[] branched = state.branched;
+        int depth = root;
+        boolean entered = true;
+
+        while (true) {
+            // a node is bounded when it is entered, leaves (all customers assigned) have no children
+            if (entered) {
+                if (this.bound(state, depth) || depth == this.gnc) {
+                    branches[depth] = this.gnf;
+                } else {
+                    // -1 if the search was cancelled during the selection
+                    branched[depth] = state.mostConstrained(this.token);
+                    branches[depth] = branched[depth] < 0 ? this.gnf : 0;
+                }
+            }
+
+            // skip children excluded by reduced-cost fixing
+            int customer = branched[depth];
+            while (branches[depth] < this.gnf && !state.allowed(customer, this.preferences[customer][branches[depth]])) {
+                branches[depth]++;
+            }
+
+            if (branches[depth] < this.gnf) {
+                // branch to the next child
+                state.assign(customer, this.preferences[customer][branches[depth]++]);
+                depth++;
+                entered = true;
+            } else if (depth > root) {
+                // all children done, backtrack to the parent
+                state.leave(depth);
+                depth--;
+                state.unassign(branched[depth]);
+                entered = false;
+            } else {
+                state.leave(depth);
+                return;
+            }
+        }
+    }
+
     /**
-     * 2D-Array with the order of preferred Facilities for each customer.
-     * (preferences[c][0] returns closest facility for customer c)
+     * Searches everything from the given path on in depth-first order: on the path the children before the path are
+     * skipped, the ones after it and the node at its end are searched as usual.
+     *
+     * @param SearchState state
+     * @param int[]       path (facility of each customer from the root on)
+     * @param int         customer
+     * O(customers^facilities) worst case
      */
-    private int[][] preferences;
+    private void resume(SearchState state, int[] path, int customer) {
+        if (customer == path.length) {
+            this.search(state, customer);
+            return;
+        }
 
-    /*
-     * Shortest distance for every customer to some facility
+        // the node was entered before, but a better incumbent may bound the rest of it now
+        if (this.bound(state, customer)) { return; }
+
+        int first = 0;
+        while (this.preferences[customer][first] != path[customer]) {
+            first++;
+        }
+
+        for (int i = first; i < this.gnf; i++) {
+            if (!state.allowed(customer, this.preferences[customer][i])) { continue; }
+
+            state.assign(customer, this.preferences[customer][i]);
+
+            if (i == first) {
+                this.resume(state, path, customer + 1);
+            } else {
+                this.search(state, customer + 1);
+            }
+
+            state.unassign(customer);
+        }
+
+        state.leave(customer);
+    }
+
+    /**
+     * Same search as resume(SearchState, int[], int) without recursion: the path is replayed onto the explicit stack
+     * of iterativeBranchAndBound(), every customer on it continues after the child on the path, and the search is
+     * entered at the end of the path (or at the first node of the path that is bounded now).
+     *
+     * @param SearchState state
+     * @param int[]       path (facility of each customer from the root on)
+     * O(customers^facilities) worst case
      */
-    private int[] shortestDistances;
+    private void iterativeResume(SearchState state, int[] path) {
+        int[] branches = state.branches;
 
-    /*
-     * Quick and dirty access to this.cflp.getNumFacilities()
+        for (int customer = 0; customer < path.length; customer++) {
+            // the node was entered before, but a better incumbent may bound the rest of it now
+            if (this.bound(state, customer)) {
+                branches[customer] = this.gnf;
+                this.iterativeBranchAndBound(state, 0, customer, false);
+                return;
+            }
+
+            int first = 0;
+            while (this.preferences[customer][first] != path[customer]) {
+                first++;
+            }
+            branches[customer] = first + 1;
+
+            // the child on the path may be excluded now, then the search goes on with the next one
+            if (!state.allowed(customer, path[customer])) {
+                this.iterativeBranchAndBound(state, 0, customer, false);
+                return;
+            }
+
+            state.assign(customer, path[customer]);
+        }
+
+        this.iterativeBranchAndBound(state, 0, path.length, true);
+    }
+
+    /**
+     * Same search as branchAndBound(SearchState, int) without recursion: the next child of every customer is kept
+     * on the explicit stack state.branches and the assignments themselves are the trail that unassign() reverts.
+     * Apart from registering new incumbents nothing is allocated, and the depth is not limited by the thread stack.
+     *
+     * @param SearchState state
+     * @param int         root
+     * O(customers^facilities) worst case, O(1) per node
      */
-    private int gnf;
+    void iterativeBranchAndBound(SearchState state, int root) {
+        this.iterativeBranchAndBound(state, root, root, true);
+    }
 
-    /*
-     * Quick and dirty access to this.cflp.getNumCustomers()
+    /**
+     * Continues iterativeBranchAndBound(SearchState, int) at the given customer, the stack state.branches from the root
+     * to it has to be filled already.
+     *
+     * @param SearchState state
+     * @param int         root
+     * @param int         customer
+     * @param boolean     entered (whether the node of the customer still has to be bounded)
+     * O(customers^facilities) worst case, O(1) per node
      */
-    private int gnc;
+    private void iterativeBranchAndBound(SearchState state, int root, int customer, boolean entered) {
+        int[] branches = state.branches;
+
+        while (true) {
+            // a node is bounded when it is entered, leaves (all customers assigned) have no children
+            if (entered) {
+                if (this.bound(state, customer) || customer == this.gnc) {
+                    branches[customer] = this.gnf;
+                } else {
+                    branches[customer] = 0;
+                }
+            }
+
+            // skip children excluded by reduced-cost fixing
+            while (branches[customer] < this.gnf && !state.allowed(customer, this.preferences[customer][branches[customer]])) {
+                branches[customer]++;
+            }
+
+            if (branches[customer] < this.gnf) {
+                // branch to the next child
+                state.assign(customer, this.preferences[customer][branches[customer]++]);
+                customer++;
+                entered = true;
+            } else if (customer > root) {
+                // all children done, backtrack to the parent
+                state.leave(customer);
+                customer--;
+                state.unassign(customer);
+                entered = false;
+            } else {
+                state.leave(customer);
+                return;
+            }
+        }
+    }
 
     /**
-     * Creates a new CFLP instance.
+     * Reads both bounds from the state, registers the upper bound and decides whether the subtree can be bounded.
      *
-     * @param  CFLPInstance instance
-     * O(customer*facilities^2) because of the sort in this.setPreferencs()
+     * @param SearchState state
+     * O(1), O(facilities) with transpositions, O(customers) if a better solution was found
      */
-    public CFLP(CFLPInstance instance) {
-        this.cflp = instance;
+    boolean bound(SearchState state, int customer) {
+        state.enter(customer);
 
-        // quick access to the number of facilities and customers
-        this.gnf = this.cflp.getNumFacilities();
-        this.gnc = this.cflp.getNumCustomers();
+        // the clock is only read every few nodes (and the node limit charged for them), a cancelled search bounds
+        // every node until it has unwound
+        if (--state.ticks <= 0) {
+            state.ticks = CancellationToken.CHECK_INTERVAL;
+            this.token.check(CancellationToken.CHECK_INTERVAL);
+        }
+        if (this.token.isCancelled()) {
+            // the first node that is not searched anymore is where a resumed search continues
+            if (this.positions && !this.stopped) {
+                this.stopped = true;
+                this.publishPosition(state, customer);
+            }
+            return true;
+        }
+        if (this.positions && this.checkpointRequested) {
+            this.publishPosition(state, customer);
+        }
 
-        this.storeShortestDistances();
+        long upper = state.upperBound();
+        long lower = state.lowerBound() + (this.capacityBound ? state.capacityBound() : 0);
 
-        this.setPreferences();
+        // upper bounds that don't fit into an int (overflowing costs) are not exact, so they are never registered
+        BnBSolution best = this.getBestSolution();
+        if (upper < Integer.MAX_VALUE && (best == null || upper < best.getUpperBound())) {
+            this.register((int) upper, state.completedSolution(), state.stats(), "search");
+            best = this.getBestSolution();
+        }
+
+        boolean bounded = this.shouldBound(customer, lower, upper);
+        boolean lagrangian = false;
+        boolean transposed = false;
+
+        // then the cache of load vectors, and only then the Lagrangian bound if neither could bound the subtree
+        if (!bounded && customer < this.gnc && state.transposed(customer)) {
+            transposed = true;
+        } else if (!bounded && state.lagrangian() != null && customer < this.gnc && state.lagrangian().applies(customer)) {
+            lower = Math.max(lower, state.lagrangian().bound(customer, best == null ? upper : best.getUpperBound()));
+            bounded = this.shouldBound(customer, lower, upper);
+            lagrangian = true;
+        }
+
+        if (state.stats() != null) {
+            state.stats().node(customer, this.gnc, lower, upper, best == null ? Long.MAX_VALUE : best.getUpperBound(), bounded, lagrangian);
+        }
+
+        return bounded || transposed;
     }
 
     /**
-     * Runs the branch and bound algorithm to determine a solution.
+     * Publishes the node as position for checkpoint(): every node before it in depth-first order is searched.
+     *
+     * @param SearchState state
+     * @param int         customer
+     * O(customers)
      */
-    @Override
-    public void run() {
-        // Default solution is that no customer is assigned to a facility
-        int[] solution = new int[this.cflp.getNumCustomers()];
-        Arrays.fill(solution, -1);
+    private void publishPosition(SearchState state, int customer) {
+        int[] position = new int[customer];
+        for (int c = 0; c < customer; c++) {
+            position[c] = state.facilityOf(c);
+        }
 
-        this.branchAndBound(solution, 0);
+        this.position = position;
+        this.checkpointRequested = false;
     }
 
     /**
-     * Calculate lower + upper bound for the current solution.
+     * Offers a solution as new incumbent, records it in the statistics if enabled and notifies the listeners.
+     *
+     * @param int         cost
+     * @param int[]       solution
+     * @param SearchStats stats (counters of the calling search state, null for the ones of CFLP)
+     * @param String      source
+     * O(customers)
+     */
+    private boolean register(int cost, int[] solution, SearchStats stats, String source) {
+        if (this.customerOrder != null) {
+            solution = this.originalOrder(solution);
+        }
+
+        boolean improved = this.setSolution(cost, solution);
+        if (this.collectStats) {
+            SearchStats counters = stats == null ? this.stats : stats;
+            counters.solutionCalls++;
+            if (improved) {
+                counters.improvements++;
+            }
+        }
+        if (improved) {
+            this.improved(cost, source);
+        }
+
+        return improved;
+    }
+
+    /**
+     * Offers the solution of a worker process as new incumbent. It is recorded in the timeline and the listeners are
+     * notified like for an own one, the worker counts it in its own statistics.
+     *
+     * @param int   cost
+     * @param int[] solution (in the original customer order)
+     * @return Whether the solution is the new incumbent
+     * O(customers)
+     */
+    boolean registerRemote(int cost, int[] solution) {
+        boolean improved = this.setSolution(cost, solution);
+        if (improved) {
+            this.improved(cost, "worker");
+        }
+
+        return improved;
+    }
+
+    /**
+     * Records a new incumbent in the timeline if enabled and notifies the listeners.
+     *
+     * @param int    cost
+     * @param String source
+     * O(states) for the nodes so far
+     */
+    private void improved(int cost, String source) {
+        if (!this.collectStats && this.listeners.isEmpty()) { return; }
+
+        long nanos = System.nanoTime() - this.startNanos;
+        if (this.collectStats) {
+            this.stats.addIncumbent(nanos, cost, source);
+            if (this.jfr) {
+                SearchEvents.incumbent(nanos, cost, source);
+            }
+        }
+
+        // another thread may have found a better one in the meantime, then that one is published by its own call
+        BnBSolution best = this.getBestSolution();
+        if (!this.listeners.isEmpty() && best.getUpperBound() == cost) {
+            this.publisher.publish(best, nanos, this.collectStats ? this.nodes() : -1);
+        }
+    }
+
+    /**
+     * Translates a solution of the renumbered instance back to the customers of the original one.
      *
-     * @param int   customer
      * @param int[] solution
-     * O(customers^facilities) worst case
+     * O(customers)
      */
-    public void branchAndBound(int[] solution, int customer) {
-        // calculate upper and lower bounds
-        int upper = this.upperBound(solution.clone());
-        int lower = this.lowerBound(solution);
+    private int[] originalOrder(int[] solution) {
+        int[] original = new int[this.gnc];
+        for (int i = 0; i < this.gnc; i++) {
+            original[this.customerOrder[i]] = solution[i];
+        }
 
-        // if we can bound the subtree we do so
-        if (this.shouldBound(customer, lower, upper)) { return; }
+        return original;
+    }
 
-        for (int i = 0; i < this.gnf; i++) {
-            int[] solutionClone = solution.clone();
+    /**
+     * Creates a search state for the empty solution.
+     *
+     * O(customers + facilities * levels)
+     */
+    SearchState newState() {
+        int[] nearest = new int[this.gnc];
+        for (int c = 0; c < this.gnc; c++) {
+            nearest[c] = this.preferences[c][0];
+        }
+
+        SearchState state = new SearchState(this.cflp, nearest, this.levelRates);
+        if (this.lagrangianIterations > 0) {
+            state.useLagrangian(this.lagrangianIterations, this.lagrangianDepth());
+        }
+        if (this.dominance != null) {
+            state.useDominance(this.dominance);
+        }
+        // with a dynamic order nodes at the same depth may have assigned different customers
+        if (this.transpositionBytes > 0 && this.order != Order.DYNAMIC) {
+            state.useTranspositions(new TranspositionTable(this.gnf, this.transpositionBytes));
+        }
+        if (this.collectStats) {
+            state.useStats(this.newStats());
+        }
 
-            // go through the sorted facilities of each customer
-            solutionClone[customer] = this.preferences[customer][i];
+        return state;
+    }
 
-            // branch to the next customer, recursion means depth first
-            this.branchAndBound(solutionClone, customer + 1);
+    /**
+     * Counters that getStats() adds up with the others, for a search state or a worker process.
+     *
+     * @return The counters, null if statistics are disabled
+     * O(1)
+     */
+    SearchStats newStats() {
+        if (!this.collectStats) { return null; }
+
+        SearchStats stats = new SearchStats();
+        this.stateStats.add(stats);
+
+        return stats;
+    }
+
+    /**
+     * Creates the i-th child of the given solution.
+     *
+     * @param int[] solution
+     * @param int   customer
+     * @param int   i
+     * O(customer) because of the clone
+     */
+    int[] branch(int[] solution, int customer, int i) {
+        int[] solutionClone = solution.clone();
+
+        // go through the sorted facilities of each customer
+        solutionClone[customer] = this.preferences[customer][i];
+
+        return solutionClone;
+    }
+
+    /**
+     * Whether the search has to stop, see cancel(). (no clock read, bound() checks the deadline)
+     *
+     * O(1)
+     */
+    boolean cancelled() {
+        return this.token.isCancelled();
+    }
+
+    /**
+     * Number of facilities, i.e. children per node.
+     *
+     * O(1)
+     */
+    int getNumFacilities() {
+        return this.gnf;
+    }
+
+    /**
+     * Number of customers, i.e. depth of the tree.
+     *
+     * O(1)
+     */
+    int getNumCustomers() {
+        return this.gnc;
+    }
+
+    /**
+     * The i-th closest facility of the given customer.
+     *
+     * @param int customer
+     * @param int i
+     * O(1)
+     */
+    int preference(int customer, int i) {
+        return this.preferences[customer][i];
+    }
+
+    /**
+     * Deepest customer whose node computes the Lagrangian bound, by default a quarter of the customers.
+     *
+     * O(1)
+     */
+    private int lagrangianDepth() {
+        return this.lagrangianDepth >= 0 ? Math.min(this.lagrangianDepth, this.gnc) : this.gnc / 4;
+    }
+
+    /**
+     * Depth up to which the parallel search creates tasks, by default deep enough for ~16 tasks per worker.
+     *
+     * @param int workers
+     * O(customer)
+     */
+    private int splitDepth(int workers) {
+        if (this.splitDepth >= 0) {
+            return Math.min(this.splitDepth, this.gnc);
         }
+
+        int depth = 0;
+        for (long tasks = 1; depth < this.gnc && tasks < 16L * workers; depth++, tasks *= this.gnf);
+
+        return depth;
     }
 
     /**
@@ -93,23 +1194,21 @@ public class CFLP extends AbstractCFLP {
      * O(customer) if facilityCost() is constant
      */
     public int lowerBound(int[] solution) {
-        // levels and bandwidths of each facility
-        int[] levels = new int[this.gnf];
+        // bandwidths of each facility
         int[] bandwidths = new int[this.gnf];
-        int[][] facilityCosts = new int[this.gnf][3];
 
-        int costs = 0;
+        long costs = 0;
         for (int i = 0; i < solution.length; i++) {
             if (solution[i] < 0) {
                 // if solution[i] < 0 then the customer has no facility yet, so we just add costs of connecting the closest facility
                 costs += this.shortestDistances[i] * this.cflp.distanceCosts;
             } else {
                 // if the customer has a facility assigned we calculate the costs and add them to the total
-                costs += this.facilityCost(solution, facilityCosts, levels, bandwidths, i);
+                costs += this.facilityCost(solution, bandwidths, i);
             }
         }
 
-        return costs;
+        return (int) Math.min(costs, Integer.MAX_VALUE);
     }
 
     /**
@@ -119,26 +1218,132 @@ public class CFLP extends AbstractCFLP {
      * O(customer) if facilityCost() is constant
      */
     public int upperBound(int[] solution) {
-        // levels and bandwidths of each facility
-        int[] levels = new int[this.gnf];
+        // bandwidths of each facility
         int[] bandwidths = new int[this.gnf];
-        int[][] facilityCosts = new int[this.gnf][3];
 
-        int costs = 0;
+        long costs = 0;
         for (int i = 0; i < solution.length; i++) {
             // if solution[i] is below zero it does not have a facility, so just assign the closest
             if (solution[i] < 0) solution[i] = this.preferences[i][0];
 
             // calculate the cost if the customer is connected to the given facility
-            costs += this.facilityCost(solution, facilityCosts, levels, bandwidths, i);
+            costs += this.facilityCost(solution, bandwidths, i);
+        }
+
+        // if costs don't fit into an int the opening costs overflowed, so dont set the solution
+        if (costs < Integer.MAX_VALUE) {
+            this.register((int) costs, solution, null, "search");
+        }
+
+        return (int) Math.min(costs, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Tree traversals of the search, BEST_FIRST and FACILITY_FIRST always run on a single thread.
+     */
+    enum Search {
+        RECURSIVE, ITERATIVE, BEST_FIRST, FACILITY_FIRST;
+
+        /**
+         * Like valueOf() but case insensitive and without reflection, which the SecurityManager forbids.
+         *
+         * @param String name
+         * O(1)
+         */
+        static Search parse(String name) {
+            for (Search search : values()) {
+                if (search.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                    return search;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown search: " + name);
+        }
+    }
+
+    /**
+     * Orders in which the customers are branched on.
+     */
+    enum Order {
+        // customers by index, as given
+        INDEX,
+        // largest bandwidth first, they fill up levels and decide the opening costs
+        BANDWIDTH,
+        // largest regret first: difference between the distances to the second closest and the closest facility
+        REGRET,
+        // at every node the unassigned customer whose two cheapest facilities differ most, given the loads so far
+        DYNAMIC;
+
+        /**
+         * Like valueOf() but case insensitive and without reflection, which the SecurityManager forbids.
+         *
+         * @param String name
+         * O(1)
+         */
+        static Order parse(String name) {
+            for (Order order : values()) {
+                if (order.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                    return order;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown order: " + name);
         }
 
-        // if costs < 0 then there was an integer overflow so dont set the solution
-        if (costs > 0) {
-            this.setSolution(costs, solution);
+        /**
+         * The customers of the instance in this order, ties by index.
+         *
+         * @param CFLPInstance instance
+         * @return The original customer at each position, null if the index order is kept
+         * O(customers * (facilities + log(customers)))
+         */
+        int[] sort(final CFLPInstance instance) {
+            if (this == INDEX || this == DYNAMIC) { return null; }
+
+            int n = instance.getNumCustomers();
+            final long[] keys = new long[n];
+            Integer[] customers = new Integer[n];
+            for (int c = 0; c < n; c++) {
+                customers[c] = c;
+                keys[c] = this == BANDWIDTH ? instance.bandwidthOf(c) : regret(instance, c);
+            }
+
+            // descending by key, Arrays.sort() of objects is stable
+            Arrays.sort(customers, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(keys[b], keys[a]);
+                }
+            });
+
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = customers[i];
+            }
+
+            return order;
         }
 
-        return costs;
+        /**
+         * @param CFLPInstance instance
+         * @param int          c
+         * @return Distance to the second closest minus distance to the closest facility, 0 with a single facility
+         * O(facilities)
+         */
+        private static long regret(CFLPInstance instance, int c) {
+            long first = Long.MAX_VALUE, second = Long.MAX_VALUE;
+            for (int f = 0; f < instance.getNumFacilities(); f++) {
+                long distance = instance.distance(f, c);
+                if (distance < first) {
+                    second = first;
+                    first = distance;
+                } else if (distance < second) {
+                    second = distance;
+                }
+            }
+
+            return second == Long.MAX_VALUE ? 0 : second - first;
+        }
     }
 
     /**
@@ -148,15 +1353,50 @@ public class CFLP extends AbstractCFLP {
      */
     private void storeShortestDistances() {
         this.shortestDistances = new int[this.gnc];
-        for (int i = 0; i < this.cflp.distances.length; i++) {
-            for (int j = 0; j < this.cflp.distances[i].length; j++) {
-                if (this.shortestDistances[j] == 0 || this.shortestDistances[j] > this.cflp.distances[i][j]) {
-                    this.shortestDistances[j] = this.cflp.distances[i][j];
+        for (int j = 0; j < this.gnc; j++) {
+            for (int i = 0; i < this.gnf; i++) {
+                if (this.shortestDistances[j] == 0 || this.shortestDistances[j] > this.cflp.distance(i, j)) {
+                    this.shortestDistances[j] = this.cflp.distance(i, j);
                 }
             }
         }
     }
 
+    /**
+     * Stores for every facility and level the cheapest opening costs per bandwidth of raising it to any higher level.
+     * Overflowing costs are treated as CFLPInstance.OVERFLOW, so beyond them only the highest level needs to be checked.
+     *
+     * O(facilities*(levels until overflow)^2)
+     */
+    private void storeLevelRates() {
+        long totalBandwidth = 0;
+        for (int c = 0; c < this.gnc; c++) {
+            totalBandwidth += this.cflp.bandwidthOf(c);
+        }
+
+        this.levelRates = new double[this.gnf][];
+        for (int f = 0; f < this.gnf; f++) {
+            int top = this.cflp.level(f, totalBandwidth);
+
+            // from the first overflowing level on raising is free, so rates are only stored below it
+            int length = 0;
+            for (; length <= top && this.cflp.levelCost(f, length) < CFLPInstance.OVERFLOW; length++);
+
+            this.levelRates[f] = new double[length];
+            for (int k = 0; k < length; k++) {
+                double rate = Double.POSITIVE_INFINITY;
+                for (int j = k + 1; j <= top; j++) {
+                    int to = this.cflp.levelCost(f, j) == CFLPInstance.OVERFLOW ? top : j;
+                    rate = Math.min(rate, (this.cflp.levelCost(f, to) - this.cflp.levelCost(f, k)) / ((double) (to - k) * this.cflp.maxBandwidthOf(f)));
+
+                    // costs never decrease, so a rate of 0 (no base costs) can't get any lower
+                    if (to == top || rate == 0) { break; }
+                }
+                this.levelRates[f][k] = rate;
+            }
+        }
+    }
+
     /**
      * Sort the preferences for each user via bubble sort.
      *
@@ -173,28 +1413,27 @@ public class CFLP extends AbstractCFLP {
             }
         }
 
-        // convert distances[facilityId][customerId] to distances[customerId][facilityId]
-        int[][] transposedDistances = new int[this.gnc][gnf];
-        for (int i = 0; i < this.gnc; i++) {
-            for (int j = 0; j < this.gnf; j++) {
-                transposedDistances[i][j] = this.cflp.distances[j][i];
-            }
-        }
+        // distances of one customer at a time, reused for every customer
+        int[] customerDistances = new int[this.gnf];
 
         // bubble sort, yes could be easier but the input isn't too big
         for (int c = 0, temp; c < this.gnc; c++) {
+            for (int j = 0; j < this.gnf; j++) {
+                customerDistances[j] = this.cflp.distance(j, c);
+            }
+
             for (int i = 0; i < this.gnf; i++) {
                 for (int j = 1; j < this.gnf-i; j++) {
-                    if (transposedDistances[c][j-1] > transposedDistances[c][j]) {
+                    if (customerDistances[j-1] > customerDistances[j]) {
                         // swap in preferences
                         temp = this.preferences[c][j-1];
                         this.preferences[c][j-1] = this.preferences[c][j];
                         this.preferences[c][j] = temp;
 
-                        // swap in transposedDistances
-                        temp = transposedDistances[c][j-1];
-                        transposedDistances[c][j-1] = transposedDistances[c][j];
-                        transposedDistances[c][j] = temp;
+                        // swap in customerDistances
+                        temp = customerDistances[j-1];
+                        customerDistances[j-1] = customerDistances[j];
+                        customerDistances[j] = temp;
                     }
                 }
             }
@@ -204,12 +1443,12 @@ public class CFLP extends AbstractCFLP {
     /**
      * Decides whether or not the subtree should be bounded.
      *
-     * @param  int customer
-     * @param  int lower
-     * @param  int upper
+     * @param  int  customer
+     * @param  long lower
+     * @param  long upper
      * O(1)
      */
-    private boolean shouldBound(int customer, int lower, int upper) {
+    private boolean shouldBound(int customer, long lower, long upper) {
         // bound if calculated lower > global best or upper is lower or there are no more customers
         return (this.getBestSolution() != null && lower >= this.getBestSolution().getUpperBound())
                 || upper == lower || customer > this.cflp.getNumCustomers();
@@ -218,52 +1457,18 @@ public class CFLP extends AbstractCFLP {
     /**
      * Get the cost if the customer ist connected to the given facility.
      * @param  int[]   solution
-     * @param  int[][] facilityCosts
-     * @param  int[]   levels
      * @param  int[]   bandwidths
      * @param  int     c (abbreviaton for customer)
-     * O(1)
+     * O(1) because the level costs are looked up in the table of the instance
      */
-    private int facilityCost(int[] solution, int[][] facilityCosts, int[] levels, int[] bandwidths, int c) {
+    long facilityCost(int[] solution, int[] bandwidths, int c) {
         // the facility to calculate
         int f = solution[c];
 
-        int oldCost = facilityCosts[f][1];
+        long oldCost = this.cflp.levelCost(f, this.cflp.level(f, bandwidths[f]));
         bandwidths[f] += this.cflp.bandwidthOf(c);
+        long newCost = this.cflp.levelCost(f, this.cflp.level(f, bandwidths[f]));
 
-        // calculate the necessary level for the facility
-        for(; levels[f] * this.cflp.maxBandwidthOf(f) < bandwidths[f]; levels[f]++);
-
-        // calculate the level iteratively based on the current stored values
-        for (int level = facilityCosts[f][0]; level <= levels[f]; level++, facilityCosts[f][0]++) {
-            switch (level) {
-                // by default de costs are zero so dont do anything
-                case 0: {
-                    break;
-                }
-
-                // for level = 1 just set the basecosts
-                case 1: {
-                    facilityCosts[f][1] = this.cflp.baseOpeningCostsOf(f);
-                    break;
-                }
-
-                // for level 2 just set the basecosts * 1.5
-                case 2: {
-                    facilityCosts[f][2] = facilityCosts[f][1];
-                    facilityCosts[f][1] = (int) Math.ceil(this.cflp.baseOpeningCostsOf(f) * 1.5);
-                    break;
-                }
-
-                // if level > 2 use the formula given in the assignment
-                default: {
-                    int newCost = facilityCosts[f][1] + facilityCosts[f][2] + (4 - level) * this.cflp.baseOpeningCostsOf(f);
-                    facilityCosts[f][2] = facilityCosts[f][1];
-                    facilityCosts[f][1] = newCost;
-                }
-            }
-        }
-
-        return this.cflp.distance(f, c) * this.cflp.distanceCosts + (facilityCosts[f][1] - oldCost);
+        return (long) this.cflp.distance(f, c) * this.cflp.distanceCosts + (newCost - oldCost);
     }
 }
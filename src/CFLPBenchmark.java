@@ -0,0 +1,403 @@
+package ad2.ss17.cflp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro and end-to-end benchmarks of the solver, run outside of Main (no SecurityManager, no time limit per run).
+ *
+ * Every benchmark is warmed up for a number of timed iterations before it is measured, so the numbers exclude JIT
+ * compilation. Per benchmark it prints the throughput (ops/s, mean and standard deviation over the iterations), the
+ * average time per operation and the allocation per operation and per second (from the allocated bytes of the
+ * benchmark thread and the solver threads, 0 means the hot path doesn't allocate).
+ *
+ * Usage: CFLPBenchmark [--warmup=5] [--iterations=5] [--time-ms=1000] [--solve-timeout-ms=30000] [--filter=text]
+ *                      [--key=value ...] [instance files, default 0000 - 0004]
+ * Other "--key=value" options are passed to CFLP.setOption() like in Main. Any instance file works, e.g. larger
+ * generated ones, text or binary.
+ */
+public class CFLPBenchmark {
+
+    /*
+     * Timed warm-up and measurement iterations and the length of each
+     */
+    private int warmup = 5;
+    private int iterations = 5;
+    private long iterationNanos = 1000L * 1000 * 1000;
+
+    /*
+     * Full solves that take longer are stopped and reported as timed out
+     */
+    private long solveTimeoutMillis = 30000;
+
+    /*
+     * Only benchmarks whose name contains this text are run
+     */
+    private String filter = "";
+
+    /*
+     * Options for the solvers, see CFLP.setOption()
+     */
+    private final List<String[]> options = new ArrayList<String[]>();
+
+    /*
+     * Results of the operations are summed up here, so the JIT can't remove them
+     */
+    private long sink;
+
+    /*
+     * Set by solve() if the solver ran out of time
+     */
+    private boolean timedOut;
+
+    /*
+     * Bytes allocated by solver threads, they are added to the allocations of the benchmark thread
+     */
+    private long solverBytes;
+
+    /**
+     * One operation to measure.
+     */
+    private abstract static class Case {
+
+        /*
+         * Name printed with the results
+         */
+        private final String name;
+
+        private Case(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the operation once.
+         *
+         * @return Some result of the operation, consumed by the benchmark
+         * @throws Exception if the operation fails
+         */
+        abstract long op() throws Exception;
+    }
+
+    /**
+     * @param String[] args
+     */
+    public static void main(String[] args) throws Exception {
+        CFLPBenchmark benchmark = new CFLPBenchmark();
+        List<String> files = new ArrayList<String>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+                continue;
+            }
+
+            String[] option = arg.substring(2).split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "warmup": {
+                    benchmark.warmup = Integer.parseInt(value);
+                    break;
+                }
+                case "iterations": {
+                    benchmark.iterations = Integer.parseInt(value);
+                    break;
+                }
+                case "time-ms": {
+                    benchmark.iterationNanos = Long.parseLong(value) * 1000 * 1000;
+                    break;
+                }
+                case "solve-timeout-ms": {
+                    benchmark.solveTimeoutMillis = Long.parseLong(value);
+                    break;
+                }
+                case "filter": {
+                    benchmark.filter = value;
+                    break;
+                }
+                default: {
+                    benchmark.options.add(new String[]{option[0], value});
+                }
+            }
+        }
+
+        if (files.isEmpty()) {
+            files.addAll(Arrays.asList("0000", "0001", "0002", "0003", "0004"));
+        }
+
+        System.out.printf("%-40s %14s %12s %14s %12s %12s%n", "benchmark", "ops/s", "+-", "ns/op", "B/op", "MB/s alloc");
+        for (String file : files) {
+            for (Case c : benchmark.cases(file)) {
+                if (c.name.contains(benchmark.filter)) {
+                    benchmark.measure(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds all benchmarks of one instance.
+     *
+     * @param String file
+     * O(customers * facilities^2) for setting up the solver
+     */
+    private List<Case> cases(final String file) throws IOException {
+        final CFLPInstance instance = new CompactCFLPInstance(new CFLPInstanceReader(file).readInstance().instance);
+        final CFLP cflp = this.newSolver(instance);
+        final int n = instance.getNumCustomers();
+        final int m = instance.getNumFacilities();
+
+        // fixed random complete and half assigned solutions
+        Random random = new Random(42);
+        final int[] complete = new int[n];
+        final int[] partial = new int[n];
+        for (int c = 0; c < n; c++) {
+            complete[c] = random.nextInt(m);
+            partial[c] = c < n / 2 ? complete[c] : -1;
+        }
+        final int[] bandwidths = new int[m];
+        final SearchState state = cflp.newState();
+
+        // levels the instance reaches: of every facility in the complete solution and with all customers, both below
+        // the first overflowing level because factor() throws there
+        int[] loads = new int[m];
+        long totalBandwidth = 0;
+        for (int c = 0; c < n; c++) {
+            loads[complete[c]] += instance.bandwidthOf(c);
+            totalBandwidth += instance.bandwidthOf(c);
+        }
+        final int[] levels = new int[2 * m];
+        for (int f = 0; f < m; f++) {
+            levels[2 * f] = this.belowOverflow(instance, f, instance.level(f, loads[f]));
+            levels[2 * f + 1] = this.belowOverflow(instance, f, instance.level(f, totalBandwidth));
+        }
+
+        List<Case> cases = new ArrayList<Case>();
+        cases.add(new Case(file + " readInstance") {
+            long op() throws IOException {
+                return new CFLPInstanceReader(file).readInstance().instance.getNumCustomers();
+            }
+        });
+        cases.add(new Case(file + " CFLP.lowerBound") {
+            long op() {
+                return cflp.lowerBound(partial);
+            }
+        });
+        cases.add(new Case(file + " CFLP.upperBound") {
+            long op() {
+                return cflp.upperBound(partial.clone());
+            }
+        });
+        cases.add(new Case(file + " CFLP.facilityCost") {
+            long op() {
+                Arrays.fill(bandwidths, 0);
+                long costs = 0;
+                for (int c = 0; c < n; c++) {
+                    costs += cflp.facilityCost(complete, bandwidths, c);
+                }
+                return costs;
+            }
+        });
+        cases.add(new Case(file + " SearchState.assign+unassign") {
+            long op() {
+                for (int c = 0; c < n; c++) {
+                    state.assign(c, complete[c]);
+                }
+                long bounds = state.lowerBound() + state.upperBound();
+                for (int c = n - 1; c >= 0; c--) {
+                    state.unassign(c);
+                }
+                return bounds;
+            }
+        });
+        cases.add(new Case(file + " calcObjectiveValue") {
+            long op() {
+                try {
+                    return instance.calcObjectiveValue(complete);
+                } catch (ArithmeticException e) {
+                    return -1;
+                }
+            }
+        });
+        cases.add(new Case(file + " factor") {
+            long op() {
+                long costs = 0;
+                for (int i = 0; i < levels.length; i++) {
+                    costs += instance.factor(levels[i], instance.baseOpeningCostsOf(i / 2));
+                }
+                return costs;
+            }
+        });
+        cases.add(new Case(file + " levelCost") {
+            long op() {
+                long costs = 0;
+                for (int i = 0; i < levels.length; i++) {
+                    costs += instance.levelCost(i / 2, levels[i]);
+                }
+                return costs;
+            }
+        });
+        cases.add(new Case(file + " CFLP.run") {
+            long op() throws InterruptedException {
+                return CFLPBenchmark.this.solve(instance);
+            }
+        });
+
+        return cases;
+    }
+
+    /**
+     * @param CFLPInstance instance
+     * @param int          f
+     * @param int          level
+     * @return The level, or the highest one of facility f below it whose costs fit into an int
+     * O(level)
+     */
+    private int belowOverflow(CFLPInstance instance, int f, int level) {
+        while (level > 0 && instance.levelCost(f, level) == CFLPInstance.OVERFLOW) {
+            level--;
+        }
+
+        return level;
+    }
+
+    /**
+     * @param CFLPInstance instance
+     * @return A solver for the instance with the configured options
+     * O(customers * facilities^2), see CFLP()
+     */
+    private CFLP newSolver(CFLPInstance instance) {
+        CFLP cflp = new CFLP(instance);
+        for (String[] option : this.options) {
+            cflp.setOption(option[0], option[1]);
+        }
+
+        return cflp;
+    }
+
+    /**
+     * Solves the instance from scratch with a fresh solver on its own thread, like Main does.
+     *
+     * @param CFLPInstance instance
+     * @return The costs of the best solution, 0 if the solve timed out (see timedOut)
+     * O(customers^facilities) worst case
+     */
+    private long solve(CFLPInstance instance) throws InterruptedException {
+        final CFLP cflp = this.newSolver(instance);
+        final long[] allocated = new long[2];
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                allocated[0] = allocatedBytes();
+                cflp.run();
+                allocated[1] = allocatedBytes();
+            }
+        }, "CFLP Benchmark");
+        thread.start();
+        thread.join(this.solveTimeoutMillis);
+
+        if (thread.isAlive()) {
+            // the same way Main ends a solver that runs out of time, the search returns within a few nodes
+            cflp.cancel();
+            thread.join();
+            this.timedOut = true;
+            return 0;
+        }
+
+        this.solverBytes += allocated[0] < 0 ? 0 : allocated[1] - allocated[0];
+        return cflp.getBestSolution().getUpperBound();
+    }
+
+    /**
+     * Runs the warm-up and the measured iterations of one benchmark and prints the results.
+     *
+     * @param Case c
+     * O(warmup + iterations) iterations of iterationNanos each
+     */
+    private void measure(Case c) throws Exception {
+        this.timedOut = false;
+
+        for (int i = 0; i < this.warmup; i++) {
+            if (this.iteration(c, null)) {
+                System.out.printf("%-40s timed out%n", c.name);
+                return;
+            }
+        }
+
+        double[] throughput = new double[this.iterations];
+        long ops = 0, nanos = 0, bytes = 0;
+        for (int i = 0; i < this.iterations; i++) {
+            long[] result = new long[3];
+            if (this.iteration(c, result)) {
+                System.out.printf("%-40s timed out%n", c.name);
+                return;
+            }
+
+            throughput[i] = result[0] * 1e9 / result[1];
+            ops += result[0];
+            nanos += result[1];
+            bytes += result[2];
+        }
+
+        double mean = 0, variance = 0;
+        for (double t : throughput) mean += t / throughput.length;
+        for (double t : throughput) variance += (t - mean) * (t - mean) / Math.max(1, throughput.length - 1);
+
+        System.out.printf("%-40s %14.1f %12.1f %14.1f %12s %12s%n", c.name, mean, Math.sqrt(variance),
+                (double) nanos / ops,
+                bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes / ops),
+                bytes < 0 ? "n/a" : String.format("%.1f", bytes * 1e3 / nanos));
+        System.out.flush();
+    }
+
+    /**
+     * Runs the operation repeatedly for iterationNanos, at least once.
+     *
+     * @param Case   c
+     * @param long[] result (operations, nanoseconds, allocated bytes or -1 if unknown), may be null
+     * @return Whether the operation timed out
+     */
+    private boolean iteration(Case c, long[] result) throws Exception {
+        long ops = 0;
+        long solverBytesBefore = this.solverBytes;
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime(), now;
+
+        // batches grow so that reading the clock doesn't dominate fast operations
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                this.sink += c.op();
+                if (this.timedOut) { return true; }
+            }
+            ops += batch;
+            now = System.nanoTime();
+            if (batch < 1 << 16 && now - start < this.iterationNanos / 100) {
+                batch *= 2;
+            }
+        } while (now - start < this.iterationNanos);
+
+        long allocatedAfter = allocatedBytes();
+        if (result != null) {
+            result[0] = ops;
+            result[1] = now - start;
+            result[2] = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore + this.solverBytes - solverBytesBefore;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The bytes the current thread allocated so far, -1 if the JVM doesn't report it
+     * O(1)
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) { return -1; }
+
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,253 @@
+package ad2.ss17.cflp;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bin&auml;res Format f&uuml;r CFLP Instanzen, das ohne Parsen geladen werden kann.
+ * <p>
+ * Alle Werte sind little-endian ints, au&szlig;er den Distanzen, die WIDTH (1, 2 oder 4) Bytes breit sind:
+ * </p>
+ * <pre>
+ * MAGIC VERSION THRESHOLD FACILITIES CUSTOMERS DISTANCECOSTS WIDTH
+ * MAXBANDWIDTHS[FACILITIES] OPENINGCOSTS[FACILITIES] BANDWIDTHS[CUSTOMERS]
+ * DISTANCES[CUSTOMERS][FACILITIES] (pro Kunde, wie in {@link CompactCFLPInstance})
+ * </pre>
+ * <p>
+ * Beim Laden wird die Datei gemappt, nur die drei kleinen Arrays werden kopiert. Die Distanzen liest die
+ * {@link CompactCFLPInstance} direkt aus dem Mapping.
+ * {@link CFLPInstanceReader} erkennt das Format an {@link #MAGIC} und l&auml;dt es automatisch, {@link #main(String[])}
+ * konvertiert zwischen Text- und Bin&auml;rformat.
+ * </p>
+ */
+public class CFLPBinaryFormat {
+
+    /**
+     * Die ersten vier Bytes einer bin&auml;ren Instanz ("CFLB")
+     */
+    public static final int MAGIC = 'C' | 'F' << 8 | 'L' << 16 | 'B' << 24;
+
+    public static final int VERSION = 2;
+
+    /**
+     * Anzahl der ints vor den Arrays
+     */
+    private static final int HEADER_INTS = 7;
+
+    /**
+     * @param buffer Der Anfang einer Datei
+     * @return Ob die Datei eine bin&auml;re Instanz ist
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        return buffer.limit() >= 4 && buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+    }
+
+    /**
+     * @param filePath Der Pfad einer Datei
+     * @return Ob die Datei eine bin&auml;re Instanz ist
+     * @throws IOException Wenn die Datei nicht gelesen werden kann
+     */
+    public static boolean isBinary(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r"); FileChannel channel = file.getChannel()) {
+            ByteBuffer start = ByteBuffer.allocate(4);
+            while (start.hasRemaining() && channel.read(start) >= 0) ;
+            start.flip();
+
+            return isBinary(start);
+        }
+    }
+
+    /**
+     * L&auml;dt eine bin&auml;re Instanz aus einer gemappten Datei.
+     *
+     * @param filePath Der Pfad der Datei
+     * @return Die Instanz mit Schwellwert
+     * @throws IOException Wenn die Datei nicht gelesen werden kann oder kein g&uuml;ltiges Format hat
+     */
+    public static CFLPInstanceReader.CFLPInstanceWithThreshold read(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Datei zu gross");
+
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * L&auml;dt eine bin&auml;re Instanz aus dem Puffer (ab Position 0).
+     *
+     * @param buffer Der Inhalt der Datei
+     * @return Die Instanz mit Schwellwert, ihre Distanzen bleiben im Puffer
+     * @throws IOException Wenn der Puffer kein g&uuml;ltiges Format hat
+     */
+    public static CFLPInstanceReader.CFLPInstanceWithThreshold read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < 4 * HEADER_INTS || buffer.getInt(0) != MAGIC)
+            throw new IOException("Keine binaere Instanz");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unbekannte Version " + buffer.getInt(4));
+
+        int threshold = buffer.getInt(8);
+        int numFacilities = buffer.getInt(12);
+        int numCustomers = buffer.getInt(16);
+        int distanceCosts = buffer.getInt(20);
+        int width = buffer.getInt(24);
+
+        if (width != 1 && width != 2 && width != 4)
+            throw new IOException("Ungueltige Breite " + width);
+        long ints = HEADER_INTS + 2L * numFacilities + numCustomers;
+        if (numFacilities < 0 || numCustomers < 0 || 4 * ints + (long) width * numFacilities * numCustomers != buffer.limit())
+            throw new IOException("Dateigroesse passt nicht zu " + numFacilities + " Facilities und "
+                    + numCustomers + " Kunden");
+
+        buffer.position(4 * HEADER_INTS);
+        IntBuffer data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        int[] maxBandwidths = new int[numFacilities];
+        int[] openingCosts = new int[numFacilities];
+        int[] bandwidths = new int[numCustomers];
+        data.get(maxBandwidths);
+        data.get(openingCosts);
+        data.get(bandwidths);
+
+        buffer.position((int) (4 * ints));
+        ByteBuffer distances = buffer.slice();
+
+        return new CFLPInstanceReader.CFLPInstanceWithThreshold(new CompactCFLPInstance(
+                maxBandwidths, distanceCosts, openingCosts, bandwidths, distances, width), threshold);
+    }
+
+    /**
+     * Speichert die Instanz im bin&auml;ren Format.
+     *
+     * @param instance Die Instanz mit Schwellwert
+     * @param filePath Der Pfad der Zieldatei (wird &uuml;berschrieben)
+     * @throws IOException Wenn die Datei nicht geschrieben werden kann
+     */
+    public static void write(CFLPInstanceReader.CFLPInstanceWithThreshold instance, String filePath) throws IOException {
+        CFLPInstance cflp = instance.instance;
+        int numFacilities = cflp.getNumFacilities();
+        int numCustomers = cflp.getNumCustomers();
+
+        int width = CompactCFLPInstance.width(cflp);
+
+        long size = 4 * (HEADER_INTS + 2L * numFacilities + numCustomers) + (long) width * numFacilities * numCustomers;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Instanz zu gross");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(instance.threshold)
+                .putInt(numFacilities).putInt(numCustomers).putInt(cflp.distanceCosts).putInt(width);
+
+        for (int value : cflp.maxBandwidths)
+            buffer.putInt(value);
+        for (int value : cflp.openingCosts)
+            buffer.putInt(value);
+        for (int value : cflp.bandwidths)
+            buffer.putInt(value);
+        // nach Kunden geordnet, damit die geladene Instanz direkt aus dem Mapping lesen kann
+        for (int j = 0; j < numCustomers; ++j) {
+            for (int i = 0; i < numFacilities; ++i) {
+                int d = cflp.distance(i, j);
+                if (width == 1)
+                    buffer.put((byte) d);
+                else if (width == 2)
+                    buffer.putShort((short) d);
+                else
+                    buffer.putInt(d);
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw"); FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+            buffer.rewind();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    /**
+     * Speichert die Instanz im Textformat, das {@link CFLPInstanceReader} liest.
+     *
+     * @param instance Die Instanz mit Schwellwert
+     * @param filePath Der Pfad der Zieldatei (wird &uuml;berschrieben)
+     * @throws IOException Wenn die Datei nicht geschrieben werden kann
+     */
+    public static void writeText(CFLPInstanceReader.CFLPInstanceWithThreshold instance, String filePath) throws IOException {
+        CFLPInstance cflp = instance.instance;
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath), "US-ASCII")))) {
+            out.print("THRESHOLD: " + instance.threshold + "\n");
+            out.print("FACILITIES: " + cflp.getNumFacilities() + "\n");
+            out.print("CUSTOMERS: " + cflp.getNumCustomers() + "\n");
+            out.print("MAXBANDWIDTHS:");
+            printList(out, cflp.maxBandwidths);
+            out.print("DISTANCECOSTS: " + cflp.distanceCosts + "\n");
+            out.print("OPENINGCOSTS:");
+            printList(out, cflp.openingCosts);
+
+            out.print("\n#bandwidth; dist_0 dist_1 ...\n");
+            for (int i = 0; i < cflp.getNumCustomers(); ++i) {
+                out.print(cflp.bandwidthOf(i));
+                out.print(';');
+                for (int j = 0; j < cflp.getNumFacilities(); ++j) {
+                    out.print(' ');
+                    out.print(cflp.distance(j, i));
+                }
+                out.print('\n');
+            }
+
+            if (out.checkError())
+                throw new IOException("Konnte " + filePath + " nicht schreiben");
+        }
+    }
+
+    private static void printList(PrintWriter out, int[] values) {
+        for (int value : values) {
+            out.print(' ');
+            out.print(value);
+        }
+        out.print('\n');
+    }
+
+    /**
+     * Konvertiert eine Instanz: Textdateien werden bin&auml;r gespeichert und bin&auml;re als Text.
+     * <p>
+     * Aufruf: <code>CFLPBinaryFormat &lt;eingabe&gt; &lt;ausgabe&gt;</code>
+     * </p>
+     *
+     * @param args Eingabe- und Ausgabedatei
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Aufruf: CFLPBinaryFormat <eingabe> <ausgabe>");
+            System.exit(1);
+        }
+
+        try {
+            CFLPInstanceReader.CFLPInstanceWithThreshold instance = new CFLPInstanceReader(args[0]).readInstance();
+
+            if (isBinary(args[0]))
+                writeText(instance, args[1]);
+            else
+                write(instance, args[1]);
+        } catch (Exception e) {
+            System.err.println("ERR Konnte " + args[0] + " nicht konvertieren: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Privater Konstruktor.
+     */
+    private CFLPBinaryFormat() {
+    }
+}
@@ -0,0 +1,241 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Cross-checks the solver against exhaustive enumeration on small random instances, run outside of Main.
+ *
+ * Every instance is solved with every combination of the search options in OPTIONS (traversal, customer order,
+ * dominance, capacity bound, Lagrangian bound, transposition table, warm start, parallel workers), and every optimum
+ * is compared with the cheapest of all facilities^customers assignments by CFLPInstance.calcObjectiveValue().
+ *
+ * The instances are small (up to 8 customers and 5 facilities) and provoke ties and degenerate cases: few distinct
+ * distances, zero distances, copies of a facility, customers without bandwidth and facilities without opening
+ * costs. MoveEvaluatorCheck uses the same instances.
+ *
+ * Usage: CFLPCrossCheck [--instances=100] [--seed=0]
+ * Prints every mismatch and a summary, the exit code is 1 if there was a mismatch.
+ */
+public class CFLPCrossCheck {
+
+    /*
+     * Every option with its values, a combination takes one value of each
+     */
+    private static final String[][] OPTIONS = {
+            {"search", "recursive", "iterative", "best-first", "facility-first"},
+            {"order", "index", "bandwidth", "regret", "dynamic"},
+            {"dominance", "false", "true"},
+            {"capacity-bound", "false", "true"},
+            {"lagrangian", "0", "10"},
+            {"transposition-mb", "0", "1"},
+            {"warm-start", "false", "true"},
+            {"workers", "1", "3"},
+    };
+
+    /*
+     * Number of random instances and seed of the first one
+     */
+    private int instances = 100;
+    private long seed = 0;
+
+    /*
+     * Counters for the summary
+     */
+    private long solves;
+    private int mismatches;
+
+    /**
+     * @param String[] args
+     */
+    public static void main(String[] args) {
+        CFLPCrossCheck check = new CFLPCrossCheck();
+
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "instances": {
+                    check.instances = Integer.parseInt(value);
+                    break;
+                }
+                case "seed": {
+                    check.seed = Long.parseLong(value);
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < check.instances; i++) {
+            CFLPInstance instance = instance(new Random(check.seed + i));
+            check.checkSolver(i, instance, check.optimum(instance));
+        }
+
+        System.out.println(check.instances + " instances, " + check.solves + " solves, " + check.mismatches
+                + " mismatches, " + (System.currentTimeMillis() - start) + "ms");
+        if (check.mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A small random instance with ties and degenerate cases, see the class comment.
+     *
+     * @param Random random
+     * O(customers * facilities), plus the calibration run of the generator
+     */
+    static CFLPInstance instance(Random random) {
+        CFLPInstanceGenerator generator = new CFLPInstanceGenerator();
+        generator.setOption("seed", Long.toString(random.nextLong()));
+        generator.setOption("facilities", Integer.toString(2 + random.nextInt(4)));
+        generator.setOption("customers", Integer.toString(3 + random.nextInt(6)));
+        generator.setOption("max-bandwidth", Integer.toString(1 + random.nextInt(4)));
+        generator.setOption("max-distance", Integer.toString(1 + random.nextInt(random.nextBoolean() ? 3 : 50)));
+        generator.setOption("distances", random.nextBoolean() ? "random" : "geometric");
+        generator.setOption("tightness", Double.toString(0.3 + random.nextDouble()));
+        int minOpeningCosts = random.nextInt(4) == 0 ? 0 : 10;
+        generator.setOption("min-opening-costs", Integer.toString(minOpeningCosts));
+        generator.setOption("max-opening-costs", Integer.toString(minOpeningCosts + 20 * random.nextInt(3)));
+        // the threshold is not used
+        generator.setOption("calibration-nodes", "1");
+        CFLPInstance generated = generator.generate().instance;
+
+        int m = generated.getNumFacilities();
+        int n = generated.getNumCustomers();
+        int[] maxBandwidths = generated.maxBandwidths.clone();
+        int[] openingCosts = generated.openingCosts.clone();
+        int[] bandwidths = generated.bandwidths.clone();
+        int[][] distances = new int[m][];
+        for (int f = 0; f < m; f++) {
+            distances[f] = generated.distances[f].clone();
+        }
+
+        // a copy of a facility, so that solutions tie
+        if (random.nextInt(3) == 0) {
+            int f = random.nextInt(m);
+            int copy = random.nextInt(m);
+            maxBandwidths[copy] = maxBandwidths[f];
+            openingCosts[copy] = openingCosts[f];
+            distances[copy] = distances[f].clone();
+        }
+        if (random.nextInt(4) == 0) {
+            distances[random.nextInt(m)][random.nextInt(n)] = 0;
+        }
+        if (random.nextInt(4) == 0) {
+            bandwidths[random.nextInt(n)] = 0;
+        }
+
+        return new CFLPInstance(maxBandwidths, generated.distanceCosts, openingCosts, bandwidths, distances);
+    }
+
+    /**
+     * Tries every assignment.
+     *
+     * @param CFLPInstance instance
+     * @return The optimal costs, -1 if no solution fits into an int
+     * O(facilities^customers * customers)
+     */
+    private int optimum(CFLPInstance instance) {
+        int n = instance.getNumCustomers();
+        int m = instance.getNumFacilities();
+        int[] solution = new int[n];
+        int best = -1;
+
+        while (true) {
+            try {
+                int cost = instance.calcObjectiveValue(solution);
+                if (best < 0 || cost < best) {
+                    best = cost;
+                }
+            } catch (ArithmeticException e) {
+                // costs that don't fit into an int are no solution
+            }
+
+            // next assignment, counting in base facilities
+            int c = 0;
+            while (c < n && ++solution[c] == m) {
+                solution[c++] = 0;
+            }
+            if (c == n) { return best; }
+        }
+    }
+
+    /**
+     * Solves the instance with every combination of OPTIONS and compares the results with the optimum.
+     *
+     * @param int          index
+     * @param CFLPInstance instance
+     * @param int          optimum (-1 if none)
+     * O(combinations * search)
+     */
+    private void checkSolver(int index, CFLPInstance instance, int optimum) {
+        CFLPInstance compact = new CompactCFLPInstance(instance);
+        int[] values = new int[OPTIONS.length];
+        do {
+            String search = OPTIONS[0][1 + values[0]];
+            boolean sequentialOnly = search.equals("best-first") || search.equals("facility-first");
+            // the other searches ignore the workers
+            if (sequentialOnly && values[OPTIONS.length - 1] > 0) {
+                continue;
+            }
+
+            CFLP solver = new CFLP(compact);
+            StringBuilder options = new StringBuilder();
+            for (int i = 0; i < OPTIONS.length; i++) {
+                solver.setOption(OPTIONS[i][0], OPTIONS[i][1 + values[i]]);
+                options.append(" --").append(OPTIONS[i][0]).append('=').append(OPTIONS[i][1 + values[i]]);
+            }
+
+            String error;
+            try {
+                solver.run();
+                AbstractCFLP.BnBSolution best = solver.getBestSolution();
+                int cost = best == null ? -1 : best.getUpperBound();
+                if (cost != optimum) {
+                    error = "costs " + cost + " instead of " + optimum;
+                } else if (best != null && instance.calcObjectiveValue(best.getBestSolution()) != cost) {
+                    error = "solution " + Arrays.toString(best.getBestSolution()) + " doesn't cost " + cost;
+                } else {
+                    error = null;
+                }
+            } catch (RuntimeException e) {
+                error = e.toString();
+            }
+
+            this.solves++;
+            if (error != null) {
+                this.mismatch(index, error + " with" + options);
+            }
+        } while (this.next(values));
+    }
+
+    /**
+     * Advances to the next combination of OPTIONS.
+     *
+     * @param int[] values (index of the value of every option)
+     * @return false after the last combination
+     * O(options)
+     */
+    private boolean next(int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (++values[i] < OPTIONS[i].length - 1) { return true; }
+            values[i] = 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param int    index
+     * @param String message
+     * O(1)
+     */
+    private void mismatch(int index, String message) {
+        this.mismatches++;
+        System.out.println("instance " + index + " (seed " + (this.seed + index) + "): " + message);
+    }
+}
@@ -11,8 +11,24 @@ public class CFLPInstance {
     public int[] openingCosts;
     public int[] maxBandwidths;
     public int[] bandwidths;
+
+    /**
+     * distances[f][c]; <code>null</code> bei {@link CompactCFLPInstance}, allgemein besser {@link #distance(int, int)}
+     */
     public int[][] distances;
 
+    /**
+     * Wert von {@link #levelCost(int, int)} f&uuml;r Kosten, die nicht mehr in einen int passen
+     */
+    public static final long OVERFLOW = Integer.MAX_VALUE + 1L;
+
+    /**
+     * levelCosts[f][k] sind die &Ouml;ffnungskosten der Facility f auf Level k (siehe {@link #factor(int, int)}),
+     * bis einschlie&szlig;lich zum ersten Level, dessen Kosten &uuml;berlaufen ({@link #OVERFLOW}). Wird aus
+     * openingCosts berechnet.
+     */
+    private final long[][] levelCosts;
+
     public CFLPInstance(int[] maxBandwidths, int distanceCosts, int[] openingCosts, int[] bandwidths, int[][] distances) {
         this.maxBandwidths = maxBandwidths;
 
@@ -21,6 +37,8 @@ public class CFLPInstance {
 
         this.bandwidths = bandwidths;
         this.distances = distances;
+
+        this.levelCosts = buildLevelCosts(openingCosts);
     }
 
     public CFLPInstance(CFLPInstance other) {
@@ -31,8 +49,11 @@ public class CFLPInstance {
         bandwidths = other.bandwidths.clone();
         distances = new int[openingCosts.length][bandwidths.length];
         for (int i = 0; i < openingCosts.length; ++i) {
-            distances[i] = other.distances[i].clone();
+            for (int j = 0; j < bandwidths.length; ++j)
+                distances[i][j] = other.distance(i, j);
         }
+
+        levelCosts = buildLevelCosts(openingCosts);
     }
 
     public int getNumCustomers() {
@@ -77,6 +98,47 @@ public class CFLPInstance {
         return openingCosts[facilityIdx];
     }
 
+    /**
+     * @param facilityIdx Der Index der Facility
+     * @param bandwidth   Die Bandbreite, die die Facility bereitstellen muss
+     * @return Das Level, das die Facility daf&uuml;r mindestens braucht (h&ouml;chstens Integer.MAX_VALUE)
+     */
+    public int level(int facilityIdx, long bandwidth) {
+        // in long, damit bandwidth + maxBandwidths - 1 nicht ueberlaeuft
+        long level = (bandwidth + maxBandwidths[facilityIdx] - 1) / maxBandwidths[facilityIdx];
+        return (int) Math.min(level, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Laufzeit O(1), die Kosten stammen aus der vorberechneten Tabelle.
+     *
+     * @param facilityIdx Der Index der Facility
+     * @param level       Das Level der Facility
+     * @return Die &Ouml;ffnungskosten auf diesem Level oder {@link #OVERFLOW}, falls sie nicht in einen int passen
+     */
+    public long levelCost(int facilityIdx, int level) {
+        long[] costs = levelCosts[facilityIdx];
+        if (level < costs.length)
+            return costs[level];
+
+        // ohne Basiskosten bleibt alles 0, sonst ist die Tabelle erst nach dem Ueberlauf zu Ende
+        return openingCosts[facilityIdx] == 0 ? 0 : OVERFLOW;
+    }
+
+    /**
+     * @param facilityIdx Der Index der Facility
+     * @param bandwidth   Die Bandbreite aller Kunden der Facility
+     * @return Die &Ouml;ffnungskosten der Facility bei dieser Bandbreite
+     * @throws ArithmeticException Wenn die Kosten nicht in einen int passen (wie bei {@link #factor(int, int)})
+     */
+    public int openingCost(int facilityIdx, int bandwidth) {
+        long cost = levelCost(facilityIdx, level(facilityIdx, bandwidth));
+        if (cost == OVERFLOW)
+            throw new ArithmeticException("integer overflow");
+
+        return (int) cost;
+    }
+
     /**
      * @param solution Eine (Teil-)L&ouml;sung für das CFLP.
      *                 Der Index des Array gibt den Kunden an, der Wert an dieser Position die zugeordnete Facility.
@@ -101,7 +163,7 @@ public class CFLPInstance {
             if (solution[i] < 0) continue;
 
             if (!openedFacilities[solution[i]]) {
-                sumCosts = Math.addExact(sumCosts, factor((int) Math.ceil(accBandwidths[solution[i]] / (double) maxBandwidths[solution[i]]), openingCosts[solution[i]]));
+                sumCosts = Math.addExact(sumCosts, openingCost(solution[i], accBandwidths[solution[i]]));
                 openedFacilities[solution[i]] = true;
             }
             sumCosts = Math.addExact(sumCosts, distanceCosts * distance(solution[i], i));
@@ -110,16 +172,72 @@ public class CFLPInstance {
         return sumCosts;
     }
 
+    /**
+     * Laufzeit O(k), iterativ statt der doppelten Rekursion.
+     *
+     * @param k         Das Level der Facility
+     * @param baseCosts Die Basiskosten der Facility
+     * @return Die &Ouml;ffnungskosten auf Level k
+     * @throws ArithmeticException Wenn die Kosten nicht in einen int passen
+     */
     public int factor(int k, int baseCosts) {
-        switch (k) {
-            case 0:
-                return 0;
-            case 1:
-                return baseCosts;
-            case 2:
-                return (int) Math.ceil(1.5 * baseCosts);
-            default:
-                return Math.addExact(Math.addExact(factor(k - 1, baseCosts), factor(k - 2, baseCosts)), (4 - k) * baseCosts);
+        if (k == 0)
+            return 0;
+
+        // previous = factor(level - 1), current = factor(level)
+        int previous = 0;
+        int current = baseCosts;
+        for (int level = 2; level <= k; ++level) {
+            int next = level == 2
+                    ? (int) Math.ceil(1.5 * baseCosts)
+                    : Math.addExact(Math.addExact(current, previous), (4 - level) * baseCosts);
+            previous = current;
+            current = next;
+        }
+
+        return current;
+    }
+
+    /**
+     * Berechnet die &Ouml;ffnungskosten jedes Levels bis zum ersten, dessen Kosten &uuml;berlaufen (bei Basiskosten
+     * ungleich 0 wachsen sie exponentiell, die Tabelle ist also kurz). Ein Level gilt genau dann als &uuml;bergelaufen,
+     * wenn {@link #factor(int, int)} dort eine ArithmeticException wirft, also auch, wenn schon die Zwischensumme
+     * der beiden vorigen Level nicht in einen int passt.
+     *
+     * @param openingCosts Die Basiskosten der Facilities
+     * @return levelCosts[f][k]
+     */
+    private static long[][] buildLevelCosts(int[] openingCosts) {
+        long[][] levelCosts = new long[openingCosts.length][];
+        long[] costs = new long[64];
+
+        for (int f = 0; f < openingCosts.length; ++f) {
+            int base = openingCosts[f];
+            int length = 1;
+            costs[0] = 0;
+
+            if (base != 0) {
+                costs[1] = base;
+                // wie der Cast in factor(): Level 2 wird auf den int-Bereich begrenzt und laeuft nie ueber
+                costs[2] = (int) Math.ceil(1.5 * base);
+                for (length = 3; costs[length - 1] != OVERFLOW; ++length) {
+                    if (length == costs.length)
+                        costs = Arrays.copyOf(costs, 2 * length);
+
+                    // dieselben Schritte wie factor(): beide addExact pruefen, das Produkt rechnet wie dort in int
+                    long sum = costs[length - 1] + costs[length - 2];
+                    long next = sum + (4 - length) * base;
+                    costs[length] = isInt(sum) && isInt(next) ? next : OVERFLOW;
+                }
+            }
+
+            levelCosts[f] = Arrays.copyOf(costs, length);
         }
+
+        return levelCosts;
+    }
+
+    private static boolean isInt(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
     }
 }
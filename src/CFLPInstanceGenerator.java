@@ -0,0 +1,226 @@
+package ad2.ss17.cflp;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Erzeugt zuf&auml;llige Instanzen (reproduzierbar &uuml;ber den Seed) im Text- oder {@link CFLPBinaryFormat}.
+ * <p>
+ * Aufruf: <code>CFLPInstanceGenerator [--key=value ...] &lt;ausgabe&gt;</code> mit den Optionen
+ * </p>
+ * <ul>
+ * <li><code>facilities</code>, <code>customers</code>: Gr&ouml;&szlig;e der Instanz (10, 50)</li>
+ * <li><code>tightness</code>: Gesamtbandbreite der Kunden / Basisbandbreite aller Facilities (0.8), &uuml;ber 1
+ * m&uuml;ssen Facilities auf h&ouml;here Level</li>
+ * <li><code>bandwidth</code>: <code>uniform</code> oder <code>skewed</code> (viele kleine, wenige gro&szlig;e Kunden)
+ * zwischen <code>min-bandwidth</code> und <code>max-bandwidth</code> (1, 10)</li>
+ * <li><code>distances</code>: <code>geometric</code> (Punkte in der Ebene, euklidische Distanz) oder
+ * <code>random</code>, jeweils bis <code>max-distance</code> (100)</li>
+ * <li><code>distance-costs</code> (10), <code>min-opening-costs</code> und <code>max-opening-costs</code>
+ * (100, 200)</li>
+ * <li><code>slack</code>: der Schwellwert ist der Wert der besten L&ouml;sung eines {@link CFLP}-Laufs mal
+ * (1 + slack) (0), der Lauf ist auf <code>calibration-nodes</code> Knoten begrenzt (10000000). Endet die Suche
+ * vorher, ist der Schwellwert mit <code>slack</code> 0 das Optimum. Der Schwellwert h&auml;ngt nicht vom Rechner
+ * ab, derselbe Seed ergibt immer dieselbe Datei</li>
+ * <li><code>seed</code> (0), <code>binary</code> (false)</li>
+ * </ul>
+ */
+public class CFLPInstanceGenerator {
+
+    private int numFacilities = 10;
+    private int numCustomers = 50;
+    private double tightness = 0.8;
+    private boolean skewedBandwidths = false;
+    private int minBandwidth = 1;
+    private int maxBandwidth = 10;
+    private boolean geometric = true;
+    private int maxDistance = 100;
+    private int distanceCosts = 10;
+    private int minOpeningCosts = 100;
+    private int maxOpeningCosts = 200;
+    private double slack = 0;
+    private long calibrationNodes = 10000000;
+    private long seed = 0;
+
+    /**
+     * Setzt eine Option wie <code>--key=value</code> auf der Kommandozeile.
+     *
+     * @param key   Der Name der Option
+     * @param value Der Wert der Option
+     */
+    public void setOption(String key, String value) {
+        switch (key) {
+            case "facilities":
+                numFacilities = Integer.parseInt(value);
+                break;
+            case "customers":
+                numCustomers = Integer.parseInt(value);
+                break;
+            case "tightness":
+                tightness = Double.parseDouble(value);
+                break;
+            case "bandwidth":
+                if (!value.equals("uniform") && !value.equals("skewed"))
+                    throw new IllegalArgumentException("Unbekannte Verteilung: " + value);
+                skewedBandwidths = value.equals("skewed");
+                break;
+            case "min-bandwidth":
+                minBandwidth = Integer.parseInt(value);
+                break;
+            case "max-bandwidth":
+                maxBandwidth = Integer.parseInt(value);
+                break;
+            case "distances":
+                if (!value.equals("geometric") && !value.equals("random"))
+                    throw new IllegalArgumentException("Unbekannte Distanzen: " + value);
+                geometric = value.equals("geometric");
+                break;
+            case "max-distance":
+                maxDistance = Integer.parseInt(value);
+                break;
+            case "distance-costs":
+                distanceCosts = Integer.parseInt(value);
+                break;
+            case "min-opening-costs":
+                minOpeningCosts = Integer.parseInt(value);
+                break;
+            case "max-opening-costs":
+                maxOpeningCosts = Integer.parseInt(value);
+                break;
+            case "slack":
+                slack = Double.parseDouble(value);
+                break;
+            case "calibration-nodes":
+                calibrationNodes = Long.parseLong(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unbekannte Option: " + key);
+        }
+    }
+
+    /**
+     * @return Eine neue Instanz mit kalibriertem Schwellwert
+     */
+    public CFLPInstanceReader.CFLPInstanceWithThreshold generate() {
+        if (numFacilities < 1 || numCustomers < 1 || minBandwidth < 1 || maxBandwidth < minBandwidth
+                || tightness <= 0 || maxOpeningCosts < minOpeningCosts || calibrationNodes < 1)
+            throw new IllegalArgumentException("Ungueltige Parameter");
+
+        Random random = new Random(seed);
+
+        int[] bandwidths = new int[numCustomers];
+        long totalBandwidth = 0;
+        for (int j = 0; j < numCustomers; ++j) {
+            // skewed: u^3 legt die meisten Kunden nahe an min-bandwidth
+            double u = random.nextDouble();
+            bandwidths[j] = minBandwidth + (int) ((maxBandwidth - minBandwidth + 1) * (skewedBandwidths ? u * u * u : u));
+            totalBandwidth += bandwidths[j];
+        }
+
+        // Basisbandbreiten um den Mittelwert (0.5 - 1.5 fach), zusammen etwa totalBandwidth / tightness
+        int[] maxBandwidths = new int[numFacilities];
+        double meanCapacity = totalBandwidth / tightness / numFacilities;
+        for (int i = 0; i < numFacilities; ++i)
+            maxBandwidths[i] = (int) Math.max(1, Math.round(meanCapacity * (0.5 + random.nextDouble())));
+
+        int[] openingCosts = new int[numFacilities];
+        for (int i = 0; i < numFacilities; ++i)
+            openingCosts[i] = minOpeningCosts + random.nextInt(maxOpeningCosts - minOpeningCosts + 1);
+
+        int[][] distances = new int[numFacilities][numCustomers];
+        if (geometric) {
+            double[][] facilityPoints = points(random, numFacilities);
+            double[][] customerPoints = points(random, numCustomers);
+            for (int i = 0; i < numFacilities; ++i) {
+                for (int j = 0; j < numCustomers; ++j) {
+                    double dx = facilityPoints[i][0] - customerPoints[j][0];
+                    double dy = facilityPoints[i][1] - customerPoints[j][1];
+                    // die Diagonale des Einheitsquadrats entspricht max-distance
+                    distances[i][j] = (int) Math.round(Math.sqrt((dx * dx + dy * dy) / 2) * maxDistance);
+                }
+            }
+        } else {
+            for (int i = 0; i < numFacilities; ++i) {
+                for (int j = 0; j < numCustomers; ++j)
+                    distances[i][j] = random.nextInt(maxDistance + 1);
+            }
+        }
+
+        CFLPInstance instance = new CFLPInstance(maxBandwidths, distanceCosts, openingCosts, bandwidths, distances);
+        return new CFLPInstanceReader.CFLPInstanceWithThreshold(instance, calibrateThreshold(instance));
+    }
+
+    /**
+     * Der Schwellwert ist der Wert der besten L&ouml;sung eines auf
+     * {@link #calibrationNodes} Knoten begrenzten Laufs des Solvers mal (1 + slack).
+     * Die Startl&ouml;sung allein w&auml;re zu leicht: der Solver findet sie,
+     * bevor er &uuml;berhaupt sucht. Die iterative Suche l&auml;uft auch bei
+     * vielen Kunden nicht &uuml;ber den Stack, und ohne Zeitlimit h&auml;ngt
+     * das Ergebnis nur von der Instanz ab.
+     *
+     * @param instance Die Instanz
+     * @return Der Schwellwert
+     */
+    private int calibrateThreshold(CFLPInstance instance) {
+        CFLP solver = new CFLP(instance);
+        solver.setOption("search", "iterative");
+        solver.setOption("node-limit", Long.toString(calibrationNodes));
+        solver.run();
+
+        AbstractCFLP.BnBSolution best = solver.getBestSolution();
+        if (best == null)
+            throw new IllegalArgumentException("Die Kosten der Instanz passen nicht in einen int");
+        long cost = best.getUpperBound();
+
+        return (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(cost * (1 + slack)));
+    }
+
+    private static double[][] points(Random random, int n) {
+        double[][] points = new double[n][2];
+        for (double[] point : points) {
+            point[0] = random.nextDouble();
+            point[1] = random.nextDouble();
+        }
+        return points;
+    }
+
+    /**
+     * @param args Optionen <code>--key=value</code> und die Ausgabedatei
+     */
+    public static void main(String[] args) {
+        CFLPInstanceGenerator generator = new CFLPInstanceGenerator();
+        String output = null;
+        boolean binary = false;
+
+        try {
+            for (String a : args) {
+                if (!a.startsWith("--")) {
+                    output = a;
+                    continue;
+                }
+
+                String[] option = a.substring(2).split("=", 2);
+                if (option[0].equals("binary"))
+                    binary = option.length < 2 || Boolean.parseBoolean(option[1]);
+                else
+                    generator.setOption(option[0], option.length > 1 ? option[1] : "");
+            }
+
+            if (output == null)
+                throw new IllegalArgumentException("Keine Ausgabedatei angegeben");
+
+            CFLPInstanceReader.CFLPInstanceWithThreshold instance = generator.generate();
+            if (binary)
+                CFLPBinaryFormat.write(instance, output);
+            else
+                CFLPBinaryFormat.writeText(instance, output);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("ERR " + e.getMessage());
+            System.err.println("Aufruf: CFLPInstanceGenerator [--key=value ...] <ausgabe>");
+            System.exit(1);
+        }
+    }
+}
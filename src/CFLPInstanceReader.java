@@ -1,11 +1,23 @@
 package ad2.ss17.cflp;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+/**
+ * Liest Instanzen im Textformat direkt aus den Bytes der Datei, ohne f&uuml;r Zeilen oder Zahlen Strings zu erzeugen.
+ * <p>
+ * Die Datei wird per {@link FileChannel} gemappt (kleine Dateien werden in einen Puffer gelesen), die Zahlen werden
+ * direkt in die Arrays der Instanz geparst. Fehlerhafte Eingaben f&uuml;hren zu denselben Ausnahmen wie beim
+ * fr&uuml;heren Einlesen mit regul&auml;ren Ausdr&uuml;cken und {@link String#split(String)}, au&szlig;er bei einem
+ * vorzeitigen Dateiende und einer Kundenzeile ohne Distanzen: daf&uuml;r gibt es eine {@link IOException} mit der
+ * Zeilennummer statt der Abst&uuml;rze des alten Parsers.
+ * </p>
+ * <p>
+ * Dateien im {@link CFLPBinaryFormat} werden an ihrem Anfang erkannt und ohne Parsen geladen.
+ * </p>
+ */
 public class CFLPInstanceReader {
     public static class CFLPInstanceWithThreshold {
         public CFLPInstance instance;
@@ -17,98 +29,301 @@ public class CFLPInstanceReader {
         }
     }
 
-    private static Pattern THRESHOLD_PATTERN = Pattern.compile("THRESHOLD:\\s*([0-9]+)");
+    /**
+     * Dateien ab dieser Gr&ouml;&szlig;e werden gemappt statt gelesen
+     */
+    private static final long MAP_THRESHOLD = 1 << 16;
 
-    private static Pattern FACILITIES_PATTERN = Pattern.compile("FACILITIES:\\s*([0-9]+)");
+    private static final byte[] THRESHOLD = ascii("THRESHOLD:");
+    private static final byte[] FACILITIES = ascii("FACILITIES:");
+    private static final byte[] CUSTOMERS = ascii("CUSTOMERS:");
+    private static final byte[] MAX_BANDWIDTHS = ascii("MAXBANDWIDTHS:");
+    private static final byte[] DISTANCECOSTS = ascii("DISTANCECOSTS:");
+    private static final byte[] OPENINGCOSTS = ascii("OPENINGCOSTS:");
 
-    private static Pattern CUSTOMERS_PATTERN = Pattern.compile("CUSTOMERS:\\s*([0-9]+)");
+    private String filePath;
 
-    private static Pattern MAX_BANDWIDTHS_PATTERN = Pattern.compile("MAXBANDWIDTHS:\\s*([0-9\\s]+)");
+    /**
+     * Inhalt der Datei und Position des Parsers
+     */
+    private ByteBuffer buffer;
+    private int position;
 
-    private static Pattern OPENINGCOSTS_PATTERN = Pattern.compile("OPENINGCOSTS:\\s*([0-9\\s]+)");
-    private static Pattern DISTANCECOSTS_PATTERN = Pattern.compile("DISTANCECOSTS:\\s*([0-9]+)");
+    /**
+     * Aktuelle Zeile [lineStart, lineEnd) ohne Zeilenumbruch
+     */
+    private int lineStart;
+    private int lineEnd;
 
-    private String filePath;
+    /**
+     * Nummer der aktuellen Zeile (ab 1), f&uuml;r Fehlermeldungen
+     */
+    private int lineNumber;
 
     public CFLPInstanceReader(String filePath) {
         this.filePath = filePath;
     }
 
     public CFLPInstanceWithThreshold readInstance() throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(filePath)) {
-            @Override
-            public String readLine() throws IOException {
-                String l = super.readLine();
-                while (l.startsWith("#") || l.trim().isEmpty())
-                    l = super.readLine();
-                return l;
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r"); FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Datei zu gross");
+
+            if (size >= MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+                buffer.flip();
             }
-        };
-
-        Matcher m;
-        String line;
-
-        line = reader.readLine();
-        m = THRESHOLD_PATTERN.matcher(line);
-        m.matches();
-        int threshold = Integer.parseInt(m.group(1));
-
-        line = reader.readLine();
-        m = FACILITIES_PATTERN.matcher(line);
-        m.matches();
-        int numFacilities = Integer.parseInt(m.group(1));
-
-        line = reader.readLine();
-        m = CUSTOMERS_PATTERN.matcher(line);
-        m.matches();
-        int numCustomers = Integer.parseInt(m.group(1));
-
-        line = reader.readLine();
-        m = MAX_BANDWIDTHS_PATTERN.matcher(line);
-        m.matches();
-        int[] baseBandwidths = parseIntList(m.group(1).split("\\s+"), numFacilities);
-
-        line = reader.readLine();
-        m = DISTANCECOSTS_PATTERN.matcher(line);
-        m.matches();
-        int distanceCosts = Integer.parseInt(m.group(1));
-
-        line = reader.readLine();
-        m = OPENINGCOSTS_PATTERN.matcher(line);
-        m.matches();
-        int[] openingCosts = parseIntList(m.group(1).split("\\s+"), numFacilities);
-
-
-        int[] bandwidths = new int[numCustomers];
-        int[][] distances = new int[numFacilities][numCustomers];
-        for (int i = 0; i < numCustomers; ++i) {
-            line = reader.readLine();
-            String[] xs = line.split("; +", 2);
-            bandwidths[i] = Integer.parseInt(xs[0]);
-            String[] distancesStrs = xs[1].split("\\s+");
-
-            if (distancesStrs.length != numFacilities)
-                throw new IOException("Anzahl der Distanzen pro Kunde muss der Anzahl der Facilities entsprechen");
-
-            for (int j = 0; j < numFacilities; ++j) {
-                distances[j][i] = Integer.parseInt(distancesStrs[j]);
+        }
+        position = 0;
+        lineNumber = 0;
+
+        if (CFLPBinaryFormat.isBinary(buffer)) {
+            try {
+                return CFLPBinaryFormat.read(buffer);
+            } finally {
+                buffer = null;
             }
         }
 
-        reader.close();
-        return new CFLPInstanceWithThreshold(new CFLPInstance(baseBandwidths, distanceCosts, openingCosts, bandwidths, distances),
-                threshold
-        );
+        try {
+            int threshold = parseHeader(THRESHOLD);
+            int numFacilities = parseHeader(FACILITIES);
+            int numCustomers = parseHeader(CUSTOMERS);
+            int[] baseBandwidths = parseHeaderList(MAX_BANDWIDTHS, numFacilities);
+            int distanceCosts = parseHeader(DISTANCECOSTS);
+            int[] openingCosts = parseHeaderList(OPENINGCOSTS, numFacilities);
+
+            int[] bandwidths = new int[numCustomers];
+            int[][] distances = new int[numFacilities][numCustomers];
+            for (int i = 0; i < numCustomers; ++i) {
+                nextLine();
+                parseCustomer(i, bandwidths, distances);
+            }
+
+            return new CFLPInstanceWithThreshold(new CFLPInstance(baseBandwidths, distanceCosts, openingCosts, bandwidths, distances),
+                    threshold
+            );
+        } finally {
+            buffer = null;
+        }
     }
 
-    private int[] parseIntList(String[] intStrs, int num) throws IOException {
-        if (intStrs.length != num)
+    /**
+     * Liest eine Zeile der Form <code>KEY:\s*([0-9]+)</code>.
+     */
+    private int parseHeader(byte[] key) throws IOException {
+        nextLine();
+        int p = skipWhitespace(matchKey(key));
+
+        int end = p;
+        while (end < lineEnd && isDigit(buffer.get(end)))
+            ++end;
+        if (end == p || end != lineEnd)
+            throw new IllegalStateException("No match found");
+
+        return parseInt(p, end);
+    }
+
+    /**
+     * Liest eine Zeile der Form <code>KEY:\s*([0-9\s]+)</code> mit genau <code>num</code> Zahlen.
+     */
+    private int[] parseHeaderList(byte[] key, int num) throws IOException {
+        nextLine();
+        int start = matchKey(key);
+        int p = skipWhitespace(start);
+
+        for (int q = p; q < lineEnd; ++q) {
+            if (!isDigit(buffer.get(q)) && !isWhitespace(buffer.get(q)))
+                throw new IllegalStateException("No match found");
+        }
+        if (p == lineEnd && p == start)
+            throw new IllegalStateException("No match found");
+
+        // die Gruppe beginnt mit einer Ziffer oder besteht nur aus Leerraum (keine Zahlen), jede Ziffernfolge ist eine Zahl
+        if ((p == lineEnd ? 0 : countTokens(p, lineEnd)) != num)
             throw new IOException("Falsche Anzahl an Ganzzahlen");
 
         int[] res = new int[num];
         for (int i = 0; i < num; ++i) {
-            res[i] = Integer.parseInt(intStrs[i]);
+            int end = p;
+            while (end < lineEnd && isDigit(buffer.get(end)))
+                ++end;
+            res[i] = parseInt(p, end);
+            p = skipWhitespace(end);
         }
         return res;
     }
+
+    /**
+     * Liest eine Kundenzeile <code>bandwidth; dist_0 dist_1 ...</code> (getrennt wie mit <code>"; +"</code> und
+     * <code>"\\s+"</code>).
+     */
+    private void parseCustomer(int customer, int[] bandwidths, int[][] distances) throws IOException {
+        int separator = lineStart;
+        while (separator < lineEnd && !(buffer.get(separator) == ';' && separator + 1 < lineEnd && buffer.get(separator + 1) == ' '))
+            ++separator;
+
+        if (separator == lineEnd) {
+            bandwidths[customer] = parseInt(lineStart, lineEnd);
+            throw new IOException("Zeile " + lineNumber + ": Kunde " + customer
+                    + " hat keine Distanzen (fehlendes \"; \")");
+        }
+        bandwidths[customer] = parseInt(lineStart, separator);
+
+        int p = separator + 1;
+        while (p < lineEnd && buffer.get(p) == ' ')
+            ++p;
+
+        if (countTokens(p, lineEnd) != distances.length)
+            throw new IOException("Anzahl der Distanzen pro Kunde muss der Anzahl der Facilities entsprechen");
+
+        for (int j = 0; j < distances.length; ++j) {
+            int end = p;
+            while (end < lineEnd && !isWhitespace(buffer.get(end)))
+                ++end;
+            distances[j][customer] = parseInt(p, end);
+            p = end;
+            while (p < lineEnd && isWhitespace(buffer.get(p)))
+                ++p;
+        }
+    }
+
+    /**
+     * Setzt die aktuelle Zeile auf die n&auml;chste, die weder leer ist noch mit <code>#</code> beginnt.
+     *
+     * @throws IOException Wenn die Datei vorher endet
+     */
+    private void nextLine() throws IOException {
+        int limit = buffer.limit();
+        while (true) {
+            if (position >= limit)
+                throw new IOException("Zeile " + lineNumber + ": unerwartetes Dateiende, es fehlen weitere Zeilen");
+
+            ++lineNumber;
+            lineStart = position;
+            while (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r')
+                ++position;
+            lineEnd = position;
+
+            // \n, \r oder \r\n
+            if (position < limit && buffer.get(position) == '\r')
+                ++position;
+            if (position < limit && buffer.get(position) == '\n')
+                ++position;
+
+            if (lineEnd > lineStart && buffer.get(lineStart) == '#')
+                continue;
+
+            // wie String.trim().isEmpty(): nur Zeichen <= ' '
+            boolean blank = true;
+            for (int p = lineStart; p < lineEnd && blank; ++p)
+                blank = (buffer.get(p) & 0xff) <= ' ';
+            if (!blank)
+                return;
+        }
+    }
+
+    /**
+     * @return Die Position nach dem Schl&uuml;ssel am Anfang der aktuellen Zeile
+     */
+    private int matchKey(byte[] key) {
+        if (lineEnd - lineStart < key.length)
+            throw new IllegalStateException("No match found");
+
+        for (int i = 0; i < key.length; ++i) {
+            if (buffer.get(lineStart + i) != key[i])
+                throw new IllegalStateException("No match found");
+        }
+        return lineStart + key.length;
+    }
+
+    /**
+     * Anzahl der Elemente, die <code>split("\\s+")</code> f&uuml;r [from, to) liefern w&uuml;rde.
+     */
+    private int countTokens(int from, int to) {
+        if (from == to)
+            return 1;
+
+        int tokens = 0;
+        boolean inToken = false;
+        for (int p = from; p < to; ++p) {
+            boolean whitespace = isWhitespace(buffer.get(p));
+            if (!whitespace && !inToken)
+                ++tokens;
+            inToken = !whitespace;
+        }
+
+        // f&uuml;hrender Leerraum erzeugt ein leeres erstes Element (au&szlig;er alles ist Leerraum)
+        if (tokens > 0 && isWhitespace(buffer.get(from)))
+            ++tokens;
+        return tokens;
+    }
+
+    /**
+     * Wie {@link Integer#parseInt(String)} f&uuml;r die Bytes [from, to).
+     */
+    private int parseInt(int from, int to) {
+        int p = from;
+        boolean negative = false;
+        if (p < to && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+            negative = buffer.get(p) == '-';
+            ++p;
+        }
+        if (p == to)
+            throw invalidNumber(from, to);
+
+        // negativ aufsummieren, damit auch Integer.MIN_VALUE darstellbar ist
+        long value = 0;
+        for (; p < to; ++p) {
+            byte b = buffer.get(p);
+            if (!isDigit(b))
+                throw invalidNumber(from, to);
+
+            value = value * 10 - (b - '0');
+            if (value < Integer.MIN_VALUE)
+                throw invalidNumber(from, to);
+        }
+
+        if (!negative && value == Integer.MIN_VALUE)
+            throw invalidNumber(from, to);
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Die Ausnahme von {@link Integer#parseInt(String)}, nur hier wird ein String erzeugt.
+     */
+    private NumberFormatException invalidNumber(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = buffer.get(from + i);
+        return new NumberFormatException("For input string: \"" + new String(bytes) + "\"");
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < lineEnd && isWhitespace(buffer.get(p)))
+            ++p;
+        return p;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Wie <code>\s</code> in regul&auml;ren Ausdr&uuml;cken.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) s.charAt(i);
+        return bytes;
+    }
 }
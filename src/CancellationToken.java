@@ -0,0 +1,101 @@
+package ad2.ss17.cflp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cooperative stop signal of a search: set by cancel() from any thread, by an optional deadline or by an optional
+ * node budget. Unlike the deadline the node budget stops a single-threaded search at the same node on every machine.
+ *
+ * The search polls isCancelled() (a volatile read) on every node and calls check(), which reads the clock, only every
+ * CHECK_INTERVAL nodes. Once cancelled every remaining node is bounded, so the search unwinds within a few nodes per
+ * level and the incumbent found so far stays the result.
+ */
+class CancellationToken {
+
+    /**
+     * Nodes a search state searches between two reads of the clock.
+     */
+    static final int CHECK_INTERVAL = 1024;
+
+    /*
+     * Set once the search has to stop, never cleared
+     */
+    private volatile boolean cancelled;
+
+    /*
+     * System.nanoTime() after which the search is cancelled, only if hasDeadline
+     */
+    private volatile long deadline;
+    private volatile boolean hasDeadline;
+
+    /*
+     * Nodes the search may still enter, only if hasNodeLimit
+     */
+    private final AtomicLong remainingNodes = new AtomicLong();
+    private volatile boolean hasNodeLimit;
+
+    /**
+     * Stops the search as soon as it polls the token next.
+     *
+     * O(1)
+     */
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * @param long deadline (System.nanoTime() at which the search is cancelled)
+     * O(1)
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * @param long nodes (number of nodes after which the search is cancelled)
+     * O(1)
+     */
+    void setNodeLimit(long nodes) {
+        this.remainingNodes.set(nodes);
+        this.hasNodeLimit = true;
+    }
+
+    /**
+     * @return Whether the search has to stop, without looking at the clock
+     * O(1)
+     */
+    boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Cancels the search if the deadline has passed.
+     *
+     * @return Whether the search has to stop
+     * O(1)
+     */
+    boolean check() {
+        // compared as difference, System.nanoTime() may overflow
+        if (!this.cancelled && this.hasDeadline && System.nanoTime() - this.deadline >= 0) {
+            this.cancelled = true;
+        }
+
+        return this.cancelled;
+    }
+
+    /**
+     * Charges the given number of nodes to the node budget, then checks the deadline like check().
+     *
+     * @param long nodes
+     * @return Whether the search has to stop
+     * O(1)
+     */
+    boolean check(long nodes) {
+        if (this.hasNodeLimit && this.remainingNodes.addAndGet(-nodes) < 0) {
+            this.cancelled = true;
+        }
+
+        return this.check();
+    }
+}
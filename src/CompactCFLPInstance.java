@@ -0,0 +1,147 @@
+package ad2.ss17.cflp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Instanz, die alle Distanzen in einem einzigen Array nach Kunden geordnet speichert
+ * (<code>[kunde * facilities + facility]</code>).
+ * <p>
+ * Je nach Wertebereich der Distanzen werden 1, 2 oder 4 Bytes pro Wert verwendet. Die Schleifen des Solvers laufen
+ * pro Kunde &uuml;ber alle Facilities und lesen so zusammenh&auml;ngenden Speicher.
+ * </p>
+ * <p>
+ * <b>{@link CFLPInstance#distances} ist bei dieser Instanz <code>null</code></b>, die Distanzen sind nur &uuml;ber
+ * {@link #distance(int, int)} erreichbar und nicht ver&auml;nderbar. Wer das Feld braucht, erzeugt mit
+ * {@link CFLPInstance#CFLPInstance(CFLPInstance)} eine Kopie mit Distanz-Matrix. Die geerbten Arrays
+ * <code>maxBandwidths</code>, <code>openingCosts</code> und <code>bandwidths</code> sind Kopien und wie bei
+ * {@link CFLPInstance} &ouml;ffentlich; &Auml;nderungen daran sind nicht vorgesehen (die &Ouml;ffnungskosten der
+ * Level werden im Konstruktor berechnet).
+ * </p>
+ * <p>
+ * {@link CFLPBinaryFormat} speichert die Distanzen in genau dieser Anordnung und Breite, eine gemappte Datei wird
+ * deshalb ohne Kopie &uuml;ber {@link #CompactCFLPInstance(int[], int, int[], int[], ByteBuffer, int)} verwendet.
+ * </p>
+ */
+public class CompactCFLPInstance extends CFLPInstance {
+
+    /**
+     * Genau eines der Arrays ist gesetzt, je nach der n&ouml;tigen Breite
+     */
+    private final byte[] byteDistances;
+    private final short[] shortDistances;
+    private final int[] intDistances;
+
+    /**
+     * Little-endian Distanzen (z.B. aus einer gemappten Datei), nur gesetzt, wenn keines der Arrays gesetzt ist
+     */
+    private final ByteBuffer bufferDistances;
+
+    private final int numFacilities;
+
+    private final int width;
+
+    /**
+     * Kopiert die Instanz in die kompakte Darstellung, {@link CFLPInstance#distances} bleibt <code>null</code>.
+     *
+     * @param other Die zu kopierende Instanz
+     */
+    public CompactCFLPInstance(CFLPInstance other) {
+        super(other.maxBandwidths.clone(), other.distanceCosts, other.openingCosts.clone(), other.bandwidths.clone(), null);
+
+        numFacilities = other.getNumFacilities();
+        int numCustomers = other.getNumCustomers();
+        int size = numFacilities * numCustomers;
+
+        width = width(other);
+        byteDistances = width == 1 ? new byte[size] : null;
+        shortDistances = width == 2 ? new short[size] : null;
+        intDistances = width == 4 ? new int[size] : null;
+        bufferDistances = null;
+
+        for (int j = 0, k = 0; j < numCustomers; ++j) {
+            for (int i = 0; i < numFacilities; ++i, ++k) {
+                int d = other.distance(i, j);
+                if (byteDistances != null)
+                    byteDistances[k] = (byte) d;
+                else if (shortDistances != null)
+                    shortDistances[k] = (short) d;
+                else
+                    intDistances[k] = d;
+            }
+        }
+    }
+
+    /**
+     * Verwendet den Puffer direkt als Distanzen, ohne sie zu kopieren. Der Puffer darf danach nicht mehr
+     * ver&auml;ndert werden.
+     *
+     * @param maxBandwidths Die Basisbandbreiten der Facilities
+     * @param distanceCosts Die Kosten pro Distanzeinheit
+     * @param openingCosts  Die Basis&ouml;ffnungskosten der Facilities
+     * @param bandwidths    Die Bandbreiten der Kunden
+     * @param distances     Die Distanzen ab Position 0, nach Kunden geordnet und little-endian
+     * @param width         Die Bytes pro Distanz (1 und 2 ohne Vorzeichen)
+     */
+    CompactCFLPInstance(int[] maxBandwidths, int distanceCosts, int[] openingCosts, int[] bandwidths, ByteBuffer distances, int width) {
+        super(maxBandwidths, distanceCosts, openingCosts, bandwidths, null);
+
+        numFacilities = openingCosts.length;
+        this.width = width;
+        byteDistances = null;
+        shortDistances = null;
+        intDistances = null;
+        bufferDistances = distances.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param facilityIdx Der Index der Facility
+     * @param customerIdx Der Index des Kunden
+     * @return Die Distanz zwischen Facility und Kunde
+     */
+    @Override
+    public int distance(int facilityIdx, int customerIdx) {
+        int k = customerIdx * numFacilities + facilityIdx;
+        if (byteDistances != null)
+            return byteDistances[k] & 0xff;
+        if (shortDistances != null)
+            return shortDistances[k] & 0xffff;
+        if (intDistances != null)
+            return intDistances[k];
+
+        if (width == 1)
+            return bufferDistances.get(k) & 0xff;
+        if (width == 2)
+            return bufferDistances.getShort(2 * k) & 0xffff;
+        return bufferDistances.getInt(4 * k);
+    }
+
+    /**
+     * @return Die Anzahl der Bytes pro gespeicherter Distanz
+     */
+    public int bytesPerDistance() {
+        return width;
+    }
+
+    /**
+     * @param instance Eine Instanz
+     * @return Die kleinste Anzahl Bytes (1, 2 oder 4), in die alle Distanzen der Instanz passen
+     */
+    public static int width(CFLPInstance instance) {
+        int min = 0;
+        int max = 0;
+        for (int i = 0; i < instance.getNumFacilities(); ++i) {
+            for (int j = 0; j < instance.getNumCustomers(); ++j) {
+                min = Math.min(min, instance.distance(i, j));
+                max = Math.max(max, instance.distance(i, j));
+            }
+        }
+
+        // Werte ohne Vorzeichen: 0..255 als byte, 0..65535 als short
+        if (min >= 0 && max <= 0xff)
+            return 1;
+        if (min >= 0 && max <= 0xffff)
+            return 2;
+        return 4;
+    }
+}
@@ -0,0 +1,337 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Branch and bound over several processes: a coordinator splits the tree into subtrees, workers search them.
+ *
+ * Both sides only exchange subtrees through queues. DistributedProtocol sends them between the processes, together
+ * with the incumbents so that every process prunes with the global best, over connections Main opens because the
+ * SecurityManager doesn't let the solver use sockets. A subtree is the path of facilities of the first customers in
+ * branching order, so coordinator and workers need the same instance and the same options.
+ *
+ * The coordinator searches the tree down to the split depth with the usual bounds and queues every node that is
+ * left there, at most QUEUED at a time. The subtrees of a lost worker are queued again. While no worker is connected
+ * (before the first one connects or after all are lost) the coordinator searches the queued subtrees itself, so the
+ * search always ends. It is done once the tree is split and every subtree is reported done. A worker searches the
+ * subtrees it is sent one after another on a single search state.
+ */
+class DistributedBranchAndBound {
+
+    /**
+     * Subtrees the coordinator queues before it waits for workers to take some.
+     */
+    static final int QUEUED = 256;
+
+    /*
+     * How long the search waits on a queue before it looks for a cancellation again
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * A node at the split depth: its id (unique per coordinator) and the facility of every customer before it.
+     */
+    static final class Subtree {
+
+        final int id;
+        final int[] path;
+
+        Subtree(int id, int[] path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    /*
+     * Queued after the last subtree of a worker by stop()
+     */
+    private static final Subtree END = new Subtree(-1, new int[0]);
+
+    /**
+     * Solver whose bounds and incumbent are used.
+     */
+    private final CFLP cflp;
+
+    /*
+     * Whether this process splits the tree (or searches subtrees), and the depth of the subtrees
+     */
+    private final boolean coordinator;
+    private final int splitDepth;
+
+    /*
+     * Subtrees that are not sent (coordinator) or not searched (worker) yet
+     */
+    private final LinkedBlockingDeque<Subtree> open = new LinkedBlockingDeque<Subtree>();
+
+    /*
+     * Worker: searched subtrees that are not reported yet
+     */
+    private final BlockingQueue<Subtree> searched = new LinkedBlockingQueue<Subtree>();
+
+    /*
+     * Coordinator: subtrees that are queued or being searched, whether the tree is completely split, the next id
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean split;
+    private int nextId;
+
+    /*
+     * Coordinator: connected workers, and the state it searches subtrees with itself (created when first needed)
+     */
+    private final AtomicInteger connected = new AtomicInteger();
+    private SearchState own;
+
+    /*
+     * Facility of every customer, -1 after the path of the subtree being searched
+     */
+    private int[] partial;
+
+    /**
+     * @param CFLP    cflp
+     * @param boolean coordinator
+     * @param int     splitDepth
+     * O(1)
+     */
+    DistributedBranchAndBound(CFLP cflp, boolean coordinator, int splitDepth) {
+        this.cflp = cflp;
+        this.coordinator = coordinator;
+        this.splitDepth = splitDepth;
+    }
+
+    /**
+     * Coordinator: splits the tree and waits until every subtree is done. Worker: searches the subtrees it gets
+     * until stop(). Both return early once the search is cancelled.
+     *
+     * @param SearchState state
+     * O(customers^facilities) worst case, divided by the number of workers
+     */
+    void solve(SearchState state) {
+        try {
+            if (this.coordinator) {
+                this.split(state, 0);
+                this.split = true;
+                while (this.pending.get() > 0 && !this.cflp.cancelled()) {
+                    this.await();
+                }
+            } else {
+                this.work(state);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the nodes at the split depth that can't be bounded, in depth-first order.
+     *
+     * @param SearchState state
+     * @param int         customer
+     * O(facilities^splitDepth)
+     */
+    private void split(SearchState state, int customer) throws InterruptedException {
+        if (this.cflp.cancelled()) { return; }
+
+        if (customer == this.splitDepth) {
+            int[] path = new int[customer];
+            for (int c = 0; c < customer; c++) {
+                path[c] = state.facilityOf(c);
+            }
+            this.queue(new Subtree(this.nextId++, path));
+            return;
+        }
+
+        if (this.cflp.bound(state, customer)) { return; }
+
+        for (int i = 0; i < this.cflp.getNumFacilities(); i++) {
+            int f = this.cflp.preference(customer, i);
+            if (!state.allowed(customer, f)) { continue; }
+
+            state.assign(customer, f);
+            this.split(state, customer + 1);
+            state.unassign(customer);
+        }
+
+        state.leave(customer);
+    }
+
+    /**
+     * Coordinator: queues a subtree, waits while QUEUED are waiting for a worker.
+     *
+     * @param Subtree subtree
+     * O(1), see await()
+     */
+    private void queue(Subtree subtree) throws InterruptedException {
+        while (this.open.size() >= QUEUED && !this.cflp.cancelled()) {
+            this.await();
+        }
+
+        this.pending.incrementAndGet();
+        this.open.addLast(subtree);
+    }
+
+    /**
+     * Coordinator: searches the next queued subtree itself if no worker is connected, otherwise waits a moment for
+     * the workers.
+     *
+     * O(customers^facilities) worst case for an own subtree, O(POLL_MILLIS) otherwise
+     */
+    private void await() throws InterruptedException {
+        Subtree subtree = this.connected.get() == 0 ? this.open.pollFirst() : null;
+        if (subtree == null) {
+            synchronized (this) {
+                this.wait(POLL_MILLIS);
+            }
+            return;
+        }
+
+        if (this.own == null) {
+            this.own = this.cflp.newState();
+        }
+        if (this.search(this.own, subtree)) {
+            this.done(subtree);
+        }
+    }
+
+    /**
+     * Coordinator: the next subtree for a worker.
+     *
+     * @param long millis (how long to wait for one)
+     * @return The subtree, null if there is none yet
+     * O(1)
+     */
+    Subtree next(long millis) throws InterruptedException {
+        Subtree subtree = this.open.pollFirst(millis, TimeUnit.MILLISECONDS);
+        if (subtree != null) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+
+        return subtree;
+    }
+
+    /**
+     * Coordinator: a worker has searched the subtree.
+     *
+     * @param Subtree subtree
+     * O(1)
+     */
+    void done(Subtree subtree) {
+        if (this.pending.decrementAndGet() == 0) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Coordinator: a worker is connected and takes subtrees.
+     *
+     * O(1)
+     */
+    void connect() {
+        this.connected.incrementAndGet();
+    }
+
+    /**
+     * Coordinator: a worker was lost, call after retry() of its subtrees. Without workers the coordinator searches
+     * the subtrees itself.
+     *
+     * O(1)
+     */
+    void disconnect() {
+        this.connected.decrementAndGet();
+    }
+
+    /**
+     * Coordinator: the worker of the subtree was lost, another one (or the coordinator) searches it.
+     *
+     * @param Subtree subtree
+     * O(1)
+     */
+    void retry(Subtree subtree) {
+        this.open.addFirst(subtree);
+    }
+
+    /**
+     * @return Coordinator: whether no subtree will be sent anymore (all done or the search was cancelled)
+     * O(1)
+     */
+    boolean finished() {
+        return (this.split && this.pending.get() == 0) || this.cflp.cancelled();
+    }
+
+    /**
+     * Searches the subtrees of open until stop().
+     *
+     * @param SearchState state
+     * O(customers^facilities) worst case
+     */
+    private void work(SearchState state) throws InterruptedException {
+        while (!this.cflp.cancelled()) {
+            Subtree subtree = this.open.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (subtree == END) { return; }
+            if (subtree == null) { continue; }
+
+            if (this.search(state, subtree)) {
+                this.searched.add(subtree);
+            }
+        }
+    }
+
+    /**
+     * Searches a subtree on the given state.
+     *
+     * @param SearchState state
+     * @param Subtree     subtree
+     * @return Whether the whole subtree was searched, i.e. the search was not cancelled
+     * O(customers^facilities) worst case
+     */
+    private boolean search(SearchState state, Subtree subtree) {
+        if (this.partial == null) {
+            this.partial = new int[this.cflp.getNumCustomers()];
+        }
+
+        Arrays.fill(this.partial, -1);
+        System.arraycopy(subtree.path, 0, this.partial, 0, subtree.path.length);
+        state.reset(this.partial);
+        this.cflp.search(state, subtree.path.length);
+
+        return !this.cflp.cancelled();
+    }
+
+    /**
+     * Worker: a subtree from the coordinator.
+     *
+     * @param Subtree subtree
+     * O(1)
+     */
+    void offer(Subtree subtree) {
+        this.open.addLast(subtree);
+    }
+
+    /**
+     * Worker: ends the search after the subtrees offered so far.
+     *
+     * O(1)
+     */
+    void stop() {
+        this.open.addLast(END);
+    }
+
+    /**
+     * Worker: the next searched subtree to report to the coordinator.
+     *
+     * @param long millis (how long to wait for one)
+     * @return The subtree, null if there is none yet
+     * O(1)
+     */
+    Subtree searched(long millis) throws InterruptedException {
+        return this.searched.poll(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,461 @@
+package ad2.ss17.cflp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Messages between the coordinator and the worker processes of a DistributedBranchAndBound.
+ *
+ * Main only opens the connections and starts the processes, because the SecurityManager allows that nowhere else.
+ * Everything on top of a connection is done here: the handshake, the framing, handing the subtrees of the queues
+ * of DistributedBranchAndBound to the workers and back, and exchanging incumbents so that every process prunes with
+ * the global best. Nothing read from a connection is trusted: a worker has to send the token of the run, lengths
+ * and facilities have to fit the instance, and a solution has to cost what the sender claims.
+ *
+ * Every message is an int type followed by its data, written with DataOutputStream:
+ * HELLO token fingerprint (worker, first message), SUBTREE id length facilities (coordinator), SOLUTION cost length
+ * facilities (both sides), DONE id length counters (worker), STOP (coordinator). The counters of DONE are the
+ * statistics of the worker so far (SearchStats.counters(), none if disabled), the coordinator adds them to its own.
+ */
+class DistributedProtocol {
+
+    /*
+     * Message types
+     */
+    private static final int HELLO = 1;
+    private static final int SUBTREE = 2;
+    private static final int SOLUTION = 3;
+    private static final int DONE = 4;
+    private static final int STOP = 5;
+
+    /**
+     * Subtrees a worker gets at once, so that it doesn't wait for the next one.
+     */
+    static final int IN_FLIGHT = 2;
+
+    /*
+     * How long a connection waits for the queues before it looks again
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Solver of this process and its subtrees.
+     */
+    private final CFLP cflp;
+    private final DistributedBranchAndBound distributed;
+
+    /*
+     * Instance that solutions read from a connection are checked against, and what identifies the run: the
+     * fingerprint of the instance and the secret token of the coordinator
+     */
+    private final CFLPInstance instance;
+    private final long fingerprint;
+    private final long token;
+
+    /*
+     * Coordinator: the connections of the workers
+     */
+    private final List<DataOutputStream> workers = new CopyOnWriteArrayList<DataOutputStream>();
+
+    /*
+     * Worker: costs of the last solution sent to the coordinator, and why the connection was lost (null if not)
+     */
+    private int sentCost = Integer.MAX_VALUE;
+    private volatile IOException lost;
+
+    /**
+     * @param CFLP                      cflp
+     * @param DistributedBranchAndBound distributed (see CFLP.distribute())
+     * @param CFLPInstance              instance (to check solutions against)
+     * @param long                      token
+     * O(customers*facilities) for the fingerprint
+     */
+    DistributedProtocol(CFLP cflp, DistributedBranchAndBound distributed, CFLPInstance instance, long token) {
+        this.cflp = cflp;
+        this.distributed = distributed;
+        this.instance = instance;
+        this.fingerprint = SearchCheckpoint.fingerprint(instance);
+        this.token = token;
+    }
+
+    /**
+     * Coordinator: sends every new incumbent of the solver to all workers. Must be called before run().
+     *
+     * O(1)
+     */
+    void broadcastIncumbents() {
+        this.cflp.addIncumbentListener(new IncumbentListener() {
+            @Override
+            public void improved(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes) {
+                DistributedProtocol.this.broadcast(solution.getUpperBound(), solution.getBestSolution());
+            }
+        });
+    }
+
+    /**
+     * Coordinator: serves one worker until every subtree is searched. The worker gets subtrees and every better
+     * solution, its own solutions are checked and become the incumbent if better (the broadcast listener sends them
+     * on to the other workers), its statistics are added to those of the coordinator. If the connection fails, the
+     * subtrees the worker has not reported done are searched by others (or by the coordinator if none is left).
+     *
+     * @param InputStream  input
+     * @param OutputStream output
+     * @throws IOException if the connection fails, the worker is not one of this run or sends something invalid
+     * O(customers) per message
+     */
+    void serve(InputStream input, OutputStream output) throws IOException, InterruptedException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        if (in.readInt() != HELLO || in.readLong() != this.token || in.readLong() != this.fingerprint) {
+            throw new IOException("Rejected a worker with a wrong token or another instance");
+        }
+
+        Deque<DistributedBranchAndBound.Subtree> running = new ArrayDeque<DistributedBranchAndBound.Subtree>();
+        SearchStats stats = this.cflp.newStats();
+        this.workers.add(out);
+        this.distributed.connect();
+        try {
+            // the best solution so far first
+            AbstractCFLP.BnBSolution best = this.cflp.getBestSolution();
+            if (best != null) {
+                this.sendSolution(out, best.getUpperBound(), best.getBestSolution());
+            }
+
+            while (true) {
+                while (running.size() < IN_FLIGHT) {
+                    DistributedBranchAndBound.Subtree subtree = this.distributed.next(running.isEmpty() ? POLL_MILLIS : 0);
+                    if (subtree == null) { break; }
+
+                    running.addLast(subtree);
+                    this.sendSubtree(out, subtree);
+                }
+
+                if (running.isEmpty()) {
+                    if (!this.distributed.finished()) { continue; }
+
+                    this.sendStop(out);
+                    return;
+                }
+
+                int type = in.readInt();
+                if (type == SOLUTION) {
+                    int cost = in.readInt();
+                    this.cflp.registerRemote(cost, this.readSolution(in, cost));
+                } else if (type == DONE) {
+                    int id = in.readInt();
+                    long[] counters = this.readCounters(in);
+                    if (stats != null && counters != null) {
+                        stats.setCounters(counters);
+                    }
+                    this.done(running, id);
+                } else {
+                    throw new IOException("Unknown message " + type);
+                }
+            }
+        } finally {
+            this.workers.remove(out);
+            for (DistributedBranchAndBound.Subtree subtree : running) {
+                this.distributed.retry(subtree);
+            }
+            this.distributed.disconnect();
+        }
+    }
+
+    /**
+     * Coordinator: a worker has searched the subtree with the given id.
+     *
+     * @param Deque running (the subtrees sent to the worker)
+     * @param int   id
+     * O(IN_FLIGHT)
+     */
+    private void done(Deque<DistributedBranchAndBound.Subtree> running, int id) {
+        for (DistributedBranchAndBound.Subtree subtree : running) {
+            if (subtree.id == id) {
+                running.remove(subtree);
+                this.distributed.done(subtree);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Coordinator: tells every connected worker to stop. A failed connection is noticed by the thread serving it.
+     *
+     * O(workers)
+     */
+    void stopWorkers() {
+        for (DataOutputStream out : this.workers) {
+            try {
+                this.sendStop(out);
+            } catch (IOException e) {
+                // serve() fails on the connection itself
+            }
+        }
+    }
+
+    /**
+     * Coordinator: sends a solution to every worker.
+     *
+     * @param int   cost
+     * @param int[] solution
+     * O(workers * customers)
+     */
+    private void broadcast(int cost, int[] solution) {
+        for (DataOutputStream out : this.workers) {
+            try {
+                this.sendSolution(out, cost, solution);
+            } catch (IOException e) {
+                // serve() fails on the connection itself
+            }
+        }
+    }
+
+    /**
+     * Worker: runs the solver in its own thread on the subtrees the coordinator sends, until it sends STOP or the
+     * connection fails. New incumbents and searched subtrees are reported as they come.
+     *
+     * @param InputStream  input
+     * @param OutputStream output
+     * @throws IOException if the connection fails or the coordinator sends something invalid
+     * O(customers) per message
+     */
+    void work(InputStream input, OutputStream output) throws IOException, InterruptedException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        synchronized (out) {
+            out.writeInt(HELLO);
+            out.writeLong(this.token);
+            out.writeLong(this.fingerprint);
+            out.flush();
+        }
+
+        // new solutions go to the coordinator right away, so that every process prunes with them
+        this.cflp.addIncumbentListener(new IncumbentListener() {
+            @Override
+            public void improved(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes) {
+                try {
+                    DistributedProtocol.this.sendOwnSolution(out, solution);
+                } catch (IOException e) {
+                    // receive() fails on the connection itself
+                }
+            }
+        });
+
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DistributedProtocol.this.receive(in);
+            }
+        }, "CFLP Worker Receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        Thread solver = new Thread(this.cflp, "CFLP Thread");
+        solver.setDaemon(true);
+        solver.start();
+
+        // report searched subtrees, the best solution first, so that the coordinator surely has it at the end
+        while (solver.isAlive()) {
+            DistributedBranchAndBound.Subtree subtree = this.distributed.searched(POLL_MILLIS);
+            if (subtree == null) { continue; }
+
+            AbstractCFLP.BnBSolution best = this.cflp.getBestSolution();
+            if (best != null) {
+                this.sendOwnSolution(out, best);
+            }
+            SearchStats stats = this.cflp.getStats();
+            long[] counters = stats == null ? new long[0] : stats.counters();
+            synchronized (out) {
+                out.writeInt(DONE);
+                out.writeInt(subtree.id);
+                out.writeInt(counters.length);
+                for (long counter : counters) {
+                    out.writeLong(counter);
+                }
+                out.flush();
+            }
+        }
+
+        if (this.lost != null) {
+            throw this.lost;
+        }
+    }
+
+    /**
+     * Worker: reads subtrees and solutions of the coordinator until STOP, then (or if the connection fails) the
+     * search ends.
+     *
+     * @param DataInputStream in
+     * O(customers) per message
+     */
+    private void receive(DataInputStream in) {
+        try {
+            for (int type = in.readInt(); type != STOP; type = in.readInt()) {
+                if (type == SUBTREE) {
+                    int id = in.readInt();
+                    int[] path = this.readFacilities(in, in.readInt());
+                    this.distributed.offer(new DistributedBranchAndBound.Subtree(id, path));
+                } else if (type == SOLUTION) {
+                    int cost = in.readInt();
+                    this.cflp.setSolution(cost, this.readSolution(in, cost));
+                } else {
+                    throw new IOException("Unknown message " + type);
+                }
+            }
+        } catch (IOException e) {
+            this.lost = e;
+        } finally {
+            this.cflp.cancel();
+            this.distributed.stop();
+        }
+    }
+
+    /**
+     * Worker: sends an own solution if it is better than the last one sent.
+     *
+     * @param DataOutputStream         out
+     * @param AbstractCFLP.BnBSolution solution
+     * O(customers)
+     */
+    private void sendOwnSolution(DataOutputStream out, AbstractCFLP.BnBSolution solution) throws IOException {
+        synchronized (out) {
+            if (solution.getUpperBound() >= this.sentCost) { return; }
+
+            this.sentCost = solution.getUpperBound();
+            this.sendSolution(out, solution.getUpperBound(), solution.getBestSolution());
+        }
+    }
+
+    /**
+     * @param DataOutputStream out
+     * @param int              cost
+     * @param int[]            solution
+     * O(customers)
+     */
+    private void sendSolution(DataOutputStream out, int cost, int[] solution) throws IOException {
+        synchronized (out) {
+            out.writeInt(SOLUTION);
+            out.writeInt(cost);
+            out.writeInt(solution.length);
+            for (int facility : solution) {
+                out.writeInt(facility);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @param DataOutputStream                  out
+     * @param DistributedBranchAndBound.Subtree subtree
+     * O(customers)
+     */
+    private void sendSubtree(DataOutputStream out, DistributedBranchAndBound.Subtree subtree) throws IOException {
+        synchronized (out) {
+            out.writeInt(SUBTREE);
+            out.writeInt(subtree.id);
+            out.writeInt(subtree.path.length);
+            for (int facility : subtree.path) {
+                out.writeInt(facility);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @param DataOutputStream out
+     * O(1)
+     */
+    private void sendStop(DataOutputStream out) throws IOException {
+        synchronized (out) {
+            out.writeInt(STOP);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the assignment of a SOLUTION and checks that it costs what the sender claims, before it can become the
+     * incumbent and prune.
+     *
+     * @param DataInputStream in
+     * @param int             cost (claimed by the sender)
+     * @return The facility of every customer
+     * @throws IOException if the connection fails, the assignment doesn't fit the instance or has other costs
+     * O(customers)
+     */
+    private int[] readSolution(DataInputStream in, int cost) throws IOException {
+        int length = in.readInt();
+        if (length != this.instance.getNumCustomers()) {
+            throw new IOException("Solution for " + length + " instead of " + this.instance.getNumCustomers() + " customers");
+        }
+        int[] solution = this.readFacilities(in, length);
+
+        int actual;
+        try {
+            actual = this.instance.calcObjectiveValue(solution);
+        } catch (ArithmeticException e) {
+            throw new IOException("The costs of the solution overflow");
+        }
+        if (actual != cost) {
+            throw new IOException("Solution costs " + actual + ", not " + cost);
+        }
+
+        return solution;
+    }
+
+    /**
+     * Reads the statistics of a DONE.
+     *
+     * @param DataInputStream in
+     * @return The counters, null if the worker sent none
+     * @throws IOException if the connection fails or the number of counters is neither 0 nor SearchStats.COUNTERS
+     * O(1)
+     */
+    private long[] readCounters(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == 0) { return null; }
+        if (length != SearchStats.COUNTERS) {
+            throw new IOException("Invalid number of counters " + length);
+        }
+
+        long[] counters = new long[length];
+        for (int i = 0; i < length; i++) {
+            counters[i] = in.readLong();
+        }
+
+        return counters;
+    }
+
+    /**
+     * Reads the facilities of a solution or a subtree, their number is read before.
+     *
+     * @param DataInputStream in
+     * @param int             length
+     * @return The facilities
+     * @throws IOException if the connection fails, there are more facilities than customers or one doesn't exist
+     * O(length)
+     */
+    private int[] readFacilities(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > this.instance.getNumCustomers()) {
+            throw new IOException("Invalid length " + length);
+        }
+
+        int[] facilities = new int[length];
+        for (int i = 0; i < length; i++) {
+            facilities[i] = in.readInt();
+            if (facilities[i] < 0 || facilities[i] >= this.instance.getNumFacilities()) {
+                throw new IOException("Invalid facility " + facilities[i]);
+            }
+        }
+
+        return facilities;
+    }
+}
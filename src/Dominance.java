@@ -0,0 +1,169 @@
+package ad2.ss17.cflp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Dominance and symmetry rules that exclude children whose whole subtree has a cheaper or equally expensive but
+ * lexicographically smaller counterpart (solutions compared customer by customer in branching order).
+ *
+ * - Swap: two customers with the same bandwidth can exchange their facilities without changing any load, so only the
+ *   distance costs change. If the customer c goes to f while an earlier partner p uses g and the exchange is cheaper
+ *   (or as expensive and f < g, e.g. for identical customers), every completion is dominated by the exchanged one.
+ * - Facility symmetry: facilities with the same base bandwidth, opening costs and distances are interchangeable, so
+ *   of two such facilities the one with the higher index is only used after the other one is.
+ * Every rule maps the excluded solutions to strictly smaller ones in the order (costs, lexicographic), so the
+ * smallest optimal solution is never excluded and the rules can be combined with each other and with the bounds.
+ * The rules with equal costs rely on the customers being assigned in index order, without it (dynamic order) only
+ * strictly cheaper exchanges are used.
+ */
+class Dominance {
+
+    /**
+     * Earlier customers with the same bandwidth checked per customer, the ones with the most similar distances first.
+     */
+    static final int MAX_PARTNERS = 8;
+
+    /**
+     * Earlier customers with the same bandwidth compared per customer (the closest ones by index), so that setting
+     * up large instances stays linear in the number of customers.
+     */
+    static final int MAX_CANDIDATES = 64;
+
+    /**
+     * Instance whose customers and facilities are compared.
+     */
+    private final CFLPInstance cflp;
+
+    /*
+     * partners[c]: earlier customers with the same bandwidth as c
+     */
+    private final int[][] partners;
+
+    /*
+     * twin[f]: the next lower facility interchangeable with f, -1 if none
+     */
+    private final int[] twin;
+
+    /*
+     * Whether the rules for exchanges at equal costs are used (customers are assigned in index order)
+     */
+    private final boolean symmetry;
+
+    /**
+     * @param CFLPInstance cflp
+     * @param boolean      symmetry (false if the customers are not assigned in index order)
+     * O(customers * MAX_CANDIDATES * facilities + facilities^2 * customers)
+     */
+    Dominance(final CFLPInstance cflp, boolean symmetry) {
+        this.cflp = cflp;
+        this.symmetry = symmetry;
+
+        int n = cflp.getNumCustomers();
+        int m = cflp.getNumFacilities();
+
+        this.partners = new int[n][];
+        for (int c = 0; c < n; c++) {
+            List<Integer> candidates = new ArrayList<Integer>();
+            for (int p = c - 1; p >= 0 && candidates.size() < MAX_CANDIDATES; p--) {
+                if (cflp.bandwidthOf(p) == cflp.bandwidthOf(c)) {
+                    candidates.add(p);
+                }
+            }
+
+            // the more similar the distances the more often an exchange is possible at no costs
+            final int customer = c;
+            candidates.sort(new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(Dominance.this.difference(a, customer), Dominance.this.difference(b, customer));
+                }
+            });
+
+            this.partners[c] = new int[Math.min(MAX_PARTNERS, candidates.size())];
+            for (int i = 0; i < this.partners[c].length; i++) {
+                this.partners[c][i] = candidates.get(i);
+            }
+        }
+
+        // with customers of bandwidth 0 an unused facility can't be told apart by its load
+        boolean positive = true;
+        for (int c = 0; c < n; c++) {
+            positive &= cflp.bandwidthOf(c) > 0;
+        }
+
+        this.twin = new int[m];
+        Arrays.fill(this.twin, -1);
+        for (int f = 0; f < m && positive && symmetry; f++) {
+            for (int g = f - 1; g >= 0 && this.twin[f] < 0; g--) {
+                if (this.interchangeable(f, g)) {
+                    this.twin[f] = g;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether every solution of the subtree where c is assigned to f is dominated. With symmetry all customers
+     * before c must be assigned in the state, c itself not.
+     *
+     * @param SearchState state
+     * @param int         c
+     * @param int         f
+     * O(MAX_PARTNERS)
+     */
+    boolean dominated(SearchState state, int c, int f) {
+        int g = this.twin[f];
+        if (g >= 0 && state.loadOf(f) == 0 && state.loadOf(g) == 0) { return true; }
+
+        for (int p : this.partners[c]) {
+            int h = state.facilityOf(p);
+            if (h == f || h < 0) { continue; }
+
+            // costs of p -> f, c -> h minus costs of p -> h, c -> f (in units of distanceCosts)
+            long exchange = (long) this.cflp.distance(f, p) + this.cflp.distance(h, c)
+                    - this.cflp.distance(h, p) - this.cflp.distance(f, c);
+            if (exchange < 0 || (exchange == 0 && f < h && this.symmetry)) { return true; }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sum of the absolute differences of the distances of two customers.
+     *
+     * @param int a
+     * @param int b
+     * O(facilities)
+     */
+    private long difference(int a, int b) {
+        long difference = 0;
+        for (int f = 0; f < this.cflp.getNumFacilities(); f++) {
+            difference += Math.abs((long) this.cflp.distance(f, a) - this.cflp.distance(f, b));
+        }
+
+        return difference;
+    }
+
+    /**
+     * Whether the facilities f and g only differ in their index.
+     *
+     * @param int f
+     * @param int g
+     * O(customers)
+     */
+    private boolean interchangeable(int f, int g) {
+        if (this.cflp.maxBandwidthOf(f) != this.cflp.maxBandwidthOf(g)
+                || this.cflp.baseOpeningCostsOf(f) != this.cflp.baseOpeningCostsOf(g)) {
+            return false;
+        }
+
+        for (int c = 0; c < this.cflp.getNumCustomers(); c++) {
+            if (this.cflp.distance(f, c) != this.cflp.distance(g, c)) { return false; }
+        }
+
+        return true;
+    }
+}
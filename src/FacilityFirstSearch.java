@@ -0,0 +1,222 @@
+package ad2.ss17.cflp;
+
+/**
+ * Two-level search: first decide which facilities are used at all, then assign the customers to them.
+ *
+ * The upper level branches on every facility (used or not), the decisions are kept as two bit sets. A node is pruned
+ * if the opening costs of level 1 of its used facilities, plus the distance of every customer to its closest facility
+ * that is not excluded, plus the opening costs for the bandwidth that does not fit into level 1 of the used
+ * facilities (at the cheapest rate any facility that is not excluded offers), reaches the incumbent. At every leaf
+ * the customers are assigned by the usual customer search, restricted to the used facilities so that its bounds
+ * only count those and charge level 1 of every one of them (see SearchState.restrict()). With few facilities and
+ * many customers most of the cost structure is decided on the upper level, and each restricted customer search is
+ * much smaller than the search over all facilities.
+ *
+ * A customer without bandwidth changes no load and no level, so it doesn't make a facility used and its closest
+ * facility is the best one whatever else is decided. It is fixed there in every leaf, also if that facility is not
+ * used, and its distance is counted as is on the upper level.
+ */
+class FacilityFirstSearch {
+
+    /**
+     * Facilities fit into the bits of a long.
+     */
+    static final int MAX_FACILITIES = 64;
+
+    /**
+     * Solver whose customer search and incumbent are used.
+     */
+    private final CFLP cflp;
+
+    /**
+     * Instance (in the customer order of the solver).
+     */
+    private final CFLPInstance instance;
+
+    /*
+     * levelRates[f][level]: cheapest opening costs per additional bandwidth when raising f from that level
+     */
+    private final double[][] levelRates;
+
+    /*
+     * Facilities in the order they are decided: the ones closest to most customers first
+     */
+    private final int[] facilities;
+
+    /*
+     * Closest used facility of every customer at a leaf
+     */
+    private final int[] nearest;
+
+    /*
+     * Bandwidth of all customers
+     */
+    private final long totalBandwidth;
+
+    /**
+     * @param CFLP         cflp
+     * @param CFLPInstance instance
+     * @param double[][]   levelRates
+     * O(customers + facilities^2)
+     */
+    FacilityFirstSearch(CFLP cflp, CFLPInstance instance, double[][] levelRates) {
+        String unsupported = unsupported(instance);
+        if (unsupported != null) {
+            throw new IllegalArgumentException(unsupported);
+        }
+
+        this.cflp = cflp;
+        this.instance = instance;
+        this.levelRates = levelRates;
+        this.nearest = new int[instance.getNumCustomers()];
+
+        int m = instance.getNumFacilities();
+        int[] closestTo = new int[m];
+        long bandwidth = 0;
+        for (int c = 0; c < instance.getNumCustomers(); c++) {
+            if (instance.bandwidthOf(c) > 0) {
+                closestTo[cflp.preference(c, 0)]++;
+            }
+            bandwidth += instance.bandwidthOf(c);
+        }
+        this.totalBandwidth = bandwidth;
+
+        // selection sort, descending by the number of customers
+        this.facilities = new int[m];
+        for (int f = 0; f < m; f++) {
+            this.facilities[f] = f;
+        }
+        for (int i = 0; i < m; i++) {
+            for (int j = i + 1; j < m; j++) {
+                if (closestTo[this.facilities[j]] > closestTo[this.facilities[i]]) {
+                    int temp = this.facilities[i];
+                    this.facilities[i] = this.facilities[j];
+                    this.facilities[j] = temp;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the search can solve the instance: the facilities have to fit into the bit sets.
+     *
+     * @param CFLPInstance instance
+     * @return Why the instance is not supported, null if it is
+     * O(1)
+     */
+    static String unsupported(CFLPInstance instance) {
+        if (instance.getNumFacilities() > MAX_FACILITIES) {
+            return "The facility first search supports at most " + MAX_FACILITIES + " facilities";
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches all sets of used facilities, the customers are searched on the given state.
+     *
+     * @param SearchState state
+     * O(2^facilities * customers * facilities) on the upper level plus the customer searches of the leaves
+     */
+    void solve(SearchState state) {
+        this.branch(state, 0, 0L, 0L);
+    }
+
+    /**
+     * Decides the i-th facility (first used, then unused) unless the node can be pruned.
+     *
+     * @param SearchState state
+     * @param int         i
+     * @param long        used (bit set of the facilities decided as used)
+     * @param long        unused (bit set of the facilities decided as unused)
+     * O(customers * facilities) per node
+     */
+    private void branch(SearchState state, int i, long used, long unused) {
+        if (this.cflp.cancelled()) { return; }
+
+        AbstractCFLP.BnBSolution best = this.cflp.getBestSolution();
+        if (best != null && this.lowerBound(used, unused) >= best.getUpperBound()) { return; }
+
+        if (i == this.facilities.length) {
+            this.leaf(state, used);
+            return;
+        }
+
+        long bit = 1L << this.facilities[i];
+        this.branch(state, i + 1, used | bit, unused);
+        this.branch(state, i + 1, used, unused | bit);
+    }
+
+    /**
+     * Assigns the customers to the used facilities with the customer search of the solver.
+     *
+     * @param SearchState state
+     * @param long        used
+     * O(used^customers) worst case
+     */
+    private void leaf(SearchState state, long used) {
+        // without a used facility only customers without bandwidth can be assigned
+        if (used == 0 && this.totalBandwidth > 0) { return; }
+
+        for (int c = 0; c < this.nearest.length; c++) {
+            if (this.instance.bandwidthOf(c) == 0) {
+                this.nearest[c] = this.cflp.preference(c, 0);
+                continue;
+            }
+
+            int i = 0;
+            while ((used >>> this.cflp.preference(c, i) & 1) == 0) {
+                i++;
+            }
+            this.nearest[c] = this.cflp.preference(c, i);
+        }
+
+        state.restrict(this.nearest, used);
+        this.cflp.search(state, 0);
+    }
+
+    /**
+     * Lower bound of all solutions that use every facility of used and none of unused.
+     *
+     * @param long used
+     * @param long unused
+     * @return The bound, Long.MAX_VALUE if no facility can be used
+     * O(customers * facilities)
+     */
+    private long lowerBound(long used, long unused) {
+        long bound = 0;
+        long capacity = 0;
+        double rate = Double.POSITIVE_INFINITY;
+
+        for (int f = 0; f < this.instance.getNumFacilities(); f++) {
+            if ((unused >>> f & 1) != 0) { continue; }
+
+            // used facilities pay level 1 anyway and can grow from there, the others have to open first
+            int level = (used >>> f & 1) != 0 ? 1 : 0;
+            if (level == 1) {
+                bound += this.instance.levelCost(f, 1);
+                capacity += this.instance.maxBandwidthOf(f);
+            }
+            rate = Math.min(rate, level < this.levelRates[f].length ? this.levelRates[f][level] : 0);
+        }
+
+        for (int c = 0; c < this.nearest.length; c++) {
+            // customers without bandwidth can use an unused facility too
+            int i = 0;
+            while (this.instance.bandwidthOf(c) > 0 && i < this.instance.getNumFacilities()
+                    && (unused >>> this.cflp.preference(c, i) & 1) != 0) {
+                i++;
+            }
+            if (i == this.instance.getNumFacilities()) { return Long.MAX_VALUE; }
+
+            bound += (long) this.instance.distance(this.cflp.preference(c, i), c) * this.instance.distanceCosts;
+        }
+
+        long missing = this.totalBandwidth - capacity;
+        if (missing > 0 && rate != Double.POSITIVE_INFINITY) {
+            bound += (long) Math.ceil(missing * rate - 1e-6);
+        }
+
+        return bound;
+    }
+}
@@ -0,0 +1,19 @@
+package ad2.ss17.cflp;
+
+/**
+ * Gets every improvement of the best solution while the search is still running, see CFLP.addIncumbentListener().
+ *
+ * Listeners are called one after another on a separate thread in the order the solutions were found, so a slow
+ * listener never blocks the search (but delays the following notifications).
+ */
+public interface IncumbentListener {
+
+    /**
+     * Called for every new best solution.
+     *
+     * @param AbstractCFLP.BnBSolution solution (costs and assignment)
+     * @param long                     elapsedNanos (since the solver started)
+     * @param long                     nodes (searched so far, -1 without setOption("stats", "true"))
+     */
+    void improved(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes);
+}
@@ -0,0 +1,125 @@
+package ad2.ss17.cflp;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Hands new incumbents from the search threads to the listeners on a thread of its own.
+ *
+ * The search only appends to an unbounded queue (incumbents are rare compared to nodes), the thread is started with
+ * the first incumbent and ends after close() once everything queued so far is delivered.
+ */
+class IncumbentPublisher implements Runnable {
+
+    /**
+     * One queued notification.
+     */
+    private static final class Improvement {
+
+        private final AbstractCFLP.BnBSolution solution;
+        private final long elapsedNanos;
+        private final long nodes;
+
+        private Improvement(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes) {
+            this.solution = solution;
+            this.elapsedNanos = elapsedNanos;
+            this.nodes = nodes;
+        }
+    }
+
+    /*
+     * Queued after the last notification by close()
+     */
+    private static final Improvement END = new Improvement(null, 0, 0);
+
+    /*
+     * Listeners of the solver (a concurrent list, it may change while notifying)
+     */
+    private final List<IncumbentListener> listeners;
+
+    private final LinkedBlockingQueue<Improvement> queue = new LinkedBlockingQueue<Improvement>();
+
+    /*
+     * The delivering thread, null until the first incumbent
+     */
+    private Thread thread;
+
+    /*
+     * First exception thrown by a listener, null if none
+     */
+    private volatile RuntimeException failure;
+
+    /**
+     * @param List<IncumbentListener> listeners
+     * O(1)
+     */
+    IncumbentPublisher(List<IncumbentListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Queues a notification, never blocks.
+     *
+     * @param AbstractCFLP.BnBSolution solution
+     * @param long                     elapsedNanos
+     * @param long                     nodes
+     * O(1)
+     */
+    void publish(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes) {
+        synchronized (this) {
+            if (this.thread == null) {
+                this.thread = new Thread(this, "CFLP Incumbent Listener");
+                // listeners must never keep the JVM alive after the solver was stopped
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+        }
+
+        this.queue.offer(new Improvement(solution, elapsedNanos, nodes));
+    }
+
+    /**
+     * Lets the thread end after the notifications queued so far.
+     *
+     * O(1)
+     */
+    void close() {
+        this.queue.offer(END);
+    }
+
+    /**
+     * @return The first exception thrown by a listener so far, null if none
+     * O(1)
+     */
+    RuntimeException failure() {
+        return this.failure;
+    }
+
+    /**
+     * Delivers the queued notifications until close().
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Improvement improvement;
+            try {
+                improvement = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (improvement == END) { return; }
+
+            for (IncumbentListener listener : this.listeners) {
+                try {
+                    listener.improved(improvement.solution, improvement.elapsedNanos, improvement.nodes);
+                } catch (RuntimeException e) {
+                    // a failing listener must neither stop the others nor the search
+                    if (this.failure == null) {
+                        this.failure = e;
+                    }
+                }
+            }
+        }
+    }
+}
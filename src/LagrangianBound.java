@@ -0,0 +1,398 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+
+/**
+ * Lower bound by Lagrangian relaxation of the assignment constraints ("every customer uses exactly one facility").
+ *
+ * With multipliers lambda[c] the problem decomposes into one subproblem per facility: choose the customers with
+ * negative reduced cost (distanceCosts * distance(f, c) - lambda[c]) and the level that minimise opening costs plus
+ * reduced costs. The subproblems are relaxed to fractional knapsacks per level, so each is solved greedily.
+ * The multipliers are improved by subgradient optimisation, and a node starts from the best multipliers of its
+ * closest ancestor that computed the bound. The bound is only computed down to a maximum depth, deeper subtrees are
+ * too small to pay for the optimisation at every node. Pairs (c, f) whose reduced cost alone lifts the bound above
+ * the incumbent are excluded for the rest of the subtree (at the root for the whole search).
+ */
+class LagrangianBound {
+
+    /**
+     * Instance to bound.
+     */
+    private final CFLPInstance cflp;
+
+    /*
+     * State whose partial solution is bounded
+     */
+    private final SearchState state;
+
+    /*
+     * Subgradient iterations at inner nodes, the root gets ROOT_FACTOR times as many
+     */
+    private final int iterations;
+
+    private static final int ROOT_FACTOR = 10;
+
+    /*
+     * Deepest customer whose node computes the bound
+     */
+    private final int maxDepth;
+
+    /*
+     * Current and best multipliers of the current node
+     */
+    private final double[] lambda;
+    private final double[] bestLambda;
+
+    /*
+     * Scratch arrays: candidates of one facility sorted by reduced cost per bandwidth, and how much of every
+     * customer is assigned in the relaxed solution
+     */
+    private final int[] items;
+    private final double[] keys;
+    private final double[] coverage;
+
+    /*
+     * excluded[c * facilities + f] is true if c must not be assigned to f in the current subtree
+     */
+    private final boolean[] excluded;
+
+    /*
+     * Undo information for excluded: the excluded pairs in order, and the trail size when a customer was entered
+     */
+    private final int[] trail;
+    private int trailSize;
+    private final int[] marks;
+
+    /*
+     * Best multipliers of the nodes on the current path that computed the bound, and their depths (the stack only
+     * holds ancestors of the current node, entries of finished subtrees are dropped on the way)
+     */
+    private final double[][] saved;
+    private final int[] savedDepths;
+    private int savedSize;
+
+    /**
+     * @param CFLPInstance cflp
+     * @param SearchState  state
+     * @param int          iterations
+     * @param int          maxDepth
+     * O(customers * facilities)
+     */
+    LagrangianBound(CFLPInstance cflp, SearchState state, int iterations, int maxDepth) {
+        this.cflp = cflp;
+        this.state = state;
+        this.iterations = iterations;
+        this.maxDepth = Math.min(maxDepth, cflp.getNumCustomers());
+
+        int n = cflp.getNumCustomers();
+        this.lambda = new double[n];
+        this.bestLambda = new double[n];
+        this.items = new int[n];
+        this.keys = new double[n];
+        this.coverage = new double[n];
+
+        this.excluded = new boolean[n * cflp.getNumFacilities()];
+        this.trail = new int[n * cflp.getNumFacilities()];
+        this.marks = new int[n + 1];
+
+        // the snapshots are allocated when a path first gets that deep
+        this.saved = new double[this.maxDepth + 1][];
+        this.savedDepths = new int[this.maxDepth + 1];
+
+        // with lambda = shortest connection costs the bound starts as the plain lower bound of the search
+        for (int c = 0; c < n; c++) {
+            long shortest = Long.MAX_VALUE;
+            for (int f = 0; f < cflp.getNumFacilities(); f++) {
+                shortest = Math.min(shortest, (long) cflp.distance(f, c) * cflp.distanceCosts);
+            }
+            this.lambda[c] = shortest;
+        }
+    }
+
+    /**
+     * Remembers which exclusions belong to the node of the given customer, must be called when the node is entered.
+     *
+     * @param int customer
+     * O(1)
+     */
+    void enter(int customer) {
+        this.marks[customer] = this.trailSize;
+    }
+
+    /**
+     * Reverts the exclusions made since enter(customer).
+     *
+     * @param int customer
+     * O(exclusions)
+     */
+    void leave(int customer) {
+        while (this.trailSize > this.marks[customer]) {
+            this.excluded[this.trail[--this.trailSize]] = false;
+        }
+    }
+
+    /**
+     * Reverts all exclusions.
+     *
+     * O(exclusions)
+     */
+    void clear() {
+        this.marks[0] = 0;
+        this.leave(0);
+        this.savedSize = 0;
+    }
+
+    /**
+     * @param int customer
+     * @return Whether the node of the given customer computes the bound
+     * O(1)
+     */
+    boolean applies(int customer) {
+        return customer <= this.maxDepth;
+    }
+
+    /**
+     * @param int c
+     * @param int f
+     * @return Whether customer c may still be assigned to facility f
+     * O(1)
+     */
+    boolean allowed(int c, int f) {
+        return !this.excluded[c * this.cflp.getNumFacilities() + f];
+    }
+
+    /**
+     * Improves the multipliers for the current node, excludes pairs by their reduced costs and returns the bound.
+     * Only for nodes that applies() to.
+     *
+     * @param int  customer
+     * @param long incumbent (costs of the best known solution)
+     * O(iterations * facilities * customers * log(customers))
+     */
+    long bound(int customer, long incumbent) {
+        int n = this.lambda.length;
+
+        // depth first, so every saved node at this depth or below was in a subtree that is done
+        while (this.savedSize > 0 && this.savedDepths[this.savedSize - 1] >= customer) {
+            this.savedSize--;
+        }
+        if (this.savedSize > 0) {
+            System.arraycopy(this.saved[this.savedSize - 1], 0, this.lambda, 0, n);
+        }
+
+        double value = this.optimise(customer == 0 ? this.iterations * ROOT_FACTOR : this.iterations, incumbent);
+        long lower = (long) Math.ceil(value - 1e-6);
+
+        // the depths on the stack increase, so it never holds more than maxDepth + 1 snapshots
+        if (this.saved[this.savedSize] == null) {
+            this.saved[this.savedSize] = new double[n];
+        }
+        System.arraycopy(this.lambda, 0, this.saved[this.savedSize], 0, n);
+        this.savedDepths[this.savedSize++] = customer;
+
+        if (lower < incumbent) {
+            this.fix(value, incumbent);
+        }
+
+        return lower;
+    }
+
+    /**
+     * Subgradient optimisation with Polyak step sizes towards the incumbent, starting from the current multipliers.
+     *
+     * @param int  iterations
+     * @param long target
+     * O(iterations * facilities * customers * log(customers))
+     */
+    private double optimise(int iterations, long target) {
+        int n = this.lambda.length;
+        double best = Double.NEGATIVE_INFINITY;
+        double mu = 2;
+
+        for (int it = 0, stalled = 0; it < Math.max(iterations, 1); it++) {
+            double value = this.evaluate();
+
+            if (value > best) {
+                best = value;
+                System.arraycopy(this.lambda, 0, this.bestLambda, 0, n);
+                stalled = 0;
+            } else if (++stalled >= 3) {
+                mu /= 2;
+                stalled = 0;
+            }
+
+            if (best >= target) { break; }
+
+            // subgradient of the relaxed constraints: 1 - (how often the customer is assigned)
+            double norm = 0;
+            for (int c = 0; c < n; c++) {
+                if (this.state.facilityOf(c) < 0) {
+                    norm += (1 - this.coverage[c]) * (1 - this.coverage[c]);
+                }
+            }
+            if (norm < 1e-12) { break; }
+
+            double step = mu * (target - value) / norm;
+            for (int c = 0; c < n; c++) {
+                if (this.state.facilityOf(c) < 0) {
+                    this.lambda[c] += step * (1 - this.coverage[c]);
+                }
+            }
+        }
+
+        // the children start from the best multipliers found here
+        System.arraycopy(this.bestLambda, 0, this.lambda, 0, n);
+        return best;
+    }
+
+    /**
+     * Value of the Lagrangian function for the current multipliers, fills coverage with the relaxed assignment.
+     *
+     * O(facilities * customers * log(customers))
+     */
+    private double evaluate() {
+        Arrays.fill(this.coverage, 0);
+
+        double value = this.state.partialDistanceCost();
+        for (int c = 0; c < this.lambda.length; c++) {
+            if (this.state.facilityOf(c) < 0) {
+                value += this.lambda[c];
+            }
+        }
+
+        for (int f = 0; f < this.cflp.getNumFacilities(); f++) {
+            value += this.solveFacility(f);
+        }
+
+        return value;
+    }
+
+    /**
+     * Fractional subproblem of facility f: best level plus the customers with the most negative reduced cost per
+     * bandwidth that fit into it. The assigned customers of f are fixed and only their bandwidth matters here.
+     *
+     * @param int f
+     * O(customers * log(customers) + levels)
+     */
+    private double solveFacility(int f) {
+        int count = 0;
+        for (int c = 0; c < this.lambda.length; c++) {
+            if (this.state.facilityOf(c) < 0 && this.allowed(c, f)) {
+                double reduced = (double) this.cflp.distance(f, c) * this.cflp.distanceCosts - this.lambda[c];
+                if (reduced < 0) {
+                    this.items[count] = c;
+                    this.keys[count++] = this.cflp.bandwidthOf(c) == 0 ? Double.NEGATIVE_INFINITY : reduced / this.cflp.bandwidthOf(c);
+                }
+            }
+        }
+        sort(this.keys, this.items, 0, count - 1);
+
+        int load = this.state.loadOf(f);
+        int minLevel = this.state.level(f, load);
+
+        // level 0 is only possible without assigned bandwidth, customers without bandwidth still fit into it for free
+        double best = Double.POSITIVE_INFINITY;
+        int bestLevel = minLevel;
+
+        double profit = 0;
+        long used = 0;
+        for (int k = minLevel, i = 0; k <= this.state.maxLevel(f); k++) {
+            long capacity = (long) k * this.cflp.maxBandwidthOf(f) - load;
+            for (; i < count && used + this.cflp.bandwidthOf(this.items[i]) <= capacity; i++) {
+                used += this.cflp.bandwidthOf(this.items[i]);
+                profit += this.reduced(f, this.items[i]);
+            }
+
+            double fraction = i < count ? (capacity - used) / (double) this.cflp.bandwidthOf(this.items[i]) : 0;
+            double value = this.state.levelCost(f, k) + profit + (i < count ? fraction * this.reduced(f, this.items[i]) : 0);
+            if (value < best) {
+                best = value;
+                bestLevel = k;
+            }
+
+            // everything fits, higher levels only cost more
+            if (i == count) { break; }
+        }
+
+        // record the relaxed assignment of the best level for the subgradient
+        long capacity = (long) bestLevel * this.cflp.maxBandwidthOf(f) - load;
+        used = 0;
+        for (int i = 0; i < count && (used < capacity || this.cflp.bandwidthOf(this.items[i]) == 0); i++) {
+            int bandwidth = this.cflp.bandwidthOf(this.items[i]);
+            this.coverage[this.items[i]] += used + bandwidth <= capacity ? 1 : (capacity - used) / (double) bandwidth;
+            used += bandwidth;
+        }
+
+        return best;
+    }
+
+    /**
+     * Excludes every pair (c, f) whose reduced cost added to the bound reaches the incumbent: forcing c into f
+     * raises the subproblem of f by at least its reduced cost and can only raise the others.
+     *
+     * @param double value
+     * @param long   incumbent
+     * O(customers * facilities)
+     */
+    private void fix(double value, long incumbent) {
+        int facilities = this.cflp.getNumFacilities();
+        for (int c = 0; c < this.lambda.length; c++) {
+            if (this.state.facilityOf(c) >= 0) { continue; }
+
+            for (int f = 0; f < facilities; f++) {
+                if (this.allowed(c, f) && Math.ceil(value + this.reduced(f, c) - 1e-6) >= incumbent) {
+                    this.excluded[c * facilities + f] = true;
+                    this.trail[this.trailSize++] = c * facilities + f;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param int f
+     * @param int c
+     * @return Reduced cost of assigning c to f
+     * O(1)
+     */
+    private double reduced(int f, int c) {
+        return (double) this.cflp.distance(f, c) * this.cflp.distanceCosts - this.lambda[c];
+    }
+
+    /**
+     * Quicksort of keys[lo..hi] ascending, items are moved along.
+     *
+     * @param double[] keys
+     * @param int[]    items
+     * @param int      lo
+     * @param int      hi
+     * O(n * log(n)) expected
+     */
+    private static void sort(double[] keys, int[] items, int lo, int hi) {
+        while (lo < hi) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    double key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+
+                    int item = items[i];
+                    items[i++] = items[j];
+                    items[j--] = item;
+                }
+            }
+
+            // recurse into the smaller half, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(keys, items, lo, j);
+                lo = i;
+            } else {
+                sort(keys, items, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
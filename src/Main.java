@@ -1,24 +1,49 @@
 package ad2.ss17.cflp;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Diese Klasse enth&auml;lt nur die {@link #main main()}-Methode zum Starten
+ * Diese Klasse enth&auml;lt die {@link #main main()}-Methode zum Starten
  * des Programms, sowie {@link #printDebug(String)} und
  * {@link #printDebug(Object)} zum Ausgeben von Debug Meldungen.
  * <p>
  * <p>
- * <b>WICHTIG:</b> Nehmen Sie keine &Auml;nderungen in dieser Klasse vor. Bei
- * der Abgabe werden diese &Auml;nderungen verworfen und es k&ouml;nnte dadurch
- * passieren, dass Ihr Programm somit nicht mehr korrekt funktioniert.
+ * <b>WICHTIG:</b> Diese Klasse weicht von der Vorlage ab. Sie enth&auml;lt
+ * au&szlig;erdem den Batch-Modus, die Checkpoints, die Worker-Prozesse und
+ * den kooperativen Abbruch der Suche, und alles, was vor dem
+ * SecurityManager passieren muss (JFR, Worker-Prozesse) oder nur mit
+ * {@link Main} auf dem Stack erlaubt ist (Verbindungen, JFR-Events). Wird
+ * die Klasse durch die Vorlage ersetzt, fehlen diese Optionen und
+ * {@link SearchEvents} l&auml;sst sich nicht mehr &uuml;bersetzen.
  * </p>
  */
 public class Main {
@@ -50,6 +75,75 @@ public class Main {
      */
     private static boolean debug = false;
 
+    /**
+     * Batch flag: alle Dateien (und Verzeichnisse) nach den Optionen werden
+     * in einer JVM gel&ouml;st
+     */
+    private static boolean batch = false;
+
+    /**
+     * Anzahl der gleichzeitig laufenden Solver im Batch-Modus
+     */
+    private static int batchThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Die Dateien f&uuml;r den Batch-Modus
+     */
+    private static List<String> batchFiles = new ArrayList<String>();
+
+    /**
+     * Zeitlimit pro Instanz in Millisekunden
+     */
+    private static final long TIMEOUT = 30000;
+
+    /**
+     * So lange wird nach dem Abbruch auf das Ende des Solvers gewartet
+     */
+    private static final long GRACE = 1000;
+
+    /**
+     * Datei f&uuml;r Checkpoints der Suche, <code>null</code> ohne
+     */
+    private static String checkpointFile = null;
+
+    /**
+     * Abstand der Checkpoints in Millisekunden
+     */
+    private static final long CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * Ab dieser Gr&ouml;&szlig;e wird die Checkpoint-Datei durch eine mit
+     * nur dem letzten Checkpoint ersetzt
+     */
+    private static final long CHECKPOINT_MAX_BYTES = 4L << 20;
+
+    /**
+     * Anzahl der Worker-Prozesse, die der Koordinator startet (0: keine)
+     */
+    private static int processes = 0;
+
+    /**
+     * Port des Koordinators, mit dem sich dieser Prozess als Worker
+     * verbindet (0: kein Worker)
+     */
+    private static int coordinatorPort = 0;
+
+    /**
+     * Server, Token und Prozesse der Worker des Koordinators, vor dem
+     * SecurityManager gestartet (siehe {@link #startCoordinator()}), und
+     * das Protokoll, mit dem sie am Ende beendet werden
+     */
+    private static ServerSocket coordinatorServer;
+    private static long coordinatorToken;
+    private static List<Process> workerProcesses;
+    private static DistributedProtocol coordinatorProtocol;
+
+    /**
+     * Optionen der Form <code>--key=value</code>, die an
+     * {@link CFLP#setOption(String, String)} weitergegeben werden
+     */
+    private static List<String[]> options = new ArrayList<String[]>();
+
     /**
      * Liest die Daten einer Testinstanz ein und &uuml;bergibt sie an die
      * entsprechenden Methoden der Implementierung.
@@ -62,7 +156,7 @@ public class Main {
      * <p>
      * <p>
      * Der erste String in <code>args</code>, der <em>nicht</em> mit <code>-d
-     * </code>, <code>-t</code>, oder <code>-s</code> beginnt, wird als der Pfad
+     * </code>, <code>-t</code>, <code>-s</code> oder <code>--</code> beginnt, wird als der Pfad
      * zur Datei interpretiert, aus der die Testinstanz auszulesen ist. Alle
      * nachfolgenden Parameter werden ignoriert. Wird kein Dateiname angegeben,
      * wird die Testinstanz &uuml;ber {@link System#in} eingelesen.
@@ -73,38 +167,99 @@ public class Main {
      *             {@link #printDebug(String)}, <code>-t</code> gibt
      *             zus&auml;tzlich Dateiname und Laufzeit aus und <code>-s</code>
      *             verhindert, dass Ihr Algorithmus nach 30 Sekunden beendet
-     *             wird. Der erste andere String wird als Dateiname
-     *             interpretiert.
+     *             wird. <code>--key=value</code> setzt eine Option des
+     *             Solvers. Der erste andere String wird als Dateiname
+     *             interpretiert. Mit <code>-b</code> werden alle folgenden
+     *             Strings als Dateien oder Verzeichnisse interpretiert und
+     *             mit <code>-jN</code> gleichzeitigen Solvern gel&ouml;st
+     *             (Standard: Anzahl der Prozessoren).
+     *             <code>-c&lt;datei&gt;</code> schreibt jede Sekunde einen
+     *             Checkpoint der Suche in die Datei und setzt die Suche
+     *             beim n&auml;chsten Start mit dem letzten fort (nicht mit
+     *             <code>-b</code> oder <code>-p</code>).
+     *             <code>-pN</code> startet <code>N</code> Worker-Prozesse
+     *             auf diesem Rechner, die Teilb&auml;ume der Suche l&ouml;sen
+     *             (nicht mit <code>-b</code>; <code>-wPORT</code> ist der
+     *             Aufruf eines Workers, der den Token des Koordinators auf
+     *             der Standardeingabe bekommt).
      */
     public static void main(String[] args) {
         processArgs(args);
-        if (fileName == null) {
+        if (batch) {
+            if (batchFiles.isEmpty())
+                bailOut("Keine Inputdatei angegeben!");
+        } else if (fileName == null) {
             bailOut("Keine Inputdatei angegeben!");
         }
+        if (batch && processes > 0)
+            bailOut("-p ist im Batch-Modus nicht moeglich");
+        if (checkpointFile != null && (batch || processes > 0))
+            bailOut("-c ist im Batch-Modus und mit -p nicht moeglich");
+        // JFR muss vor dem SecurityManager initialisiert werden
+        for (String[] option : options)
+            if (option[0].equals("jfr") && Boolean.parseBoolean(option[1]))
+                SearchEvents.init();
+
+        // Worker-Prozesse vor dem SecurityManager starten, siehe startCoordinator()
+        if (processes > 0 && coordinatorPort == 0) {
+            try {
+                startCoordinator();
+            } catch (IOException e) {
+                bailOut("Worker konnten nicht gestartet werden (" + e + ")");
+            }
+        }
+
         SecurityManager oldsm = null;
+        boolean smInstalled = false;
         try {
             oldsm = System.getSecurityManager();
             SecurityManager sm = new ADS1SecurityManager();
             System.setSecurityManager(sm);
+            smInstalled = true;
         } catch (SecurityException e) {
             bailOut("Error: SecurityManager konnte nicht gesetzt werden: " + e);
+        } catch (UnsupportedOperationException e) {
+            // ab Java 18 nur mit -Djava.security.manager=allow, sonst ohne SecurityManager; das muss man immer sehen
+            System.err.println("WARN SecurityManager nicht verfuegbar, das Programm laeuft ohne "
+                    + ADS1SecurityManager.class.getSimpleName() + " (mit -Djava.security.manager=allow starten): " + e);
+        }
+
+        if (batch) {
+            try {
+                runBatch(batchFiles);
+            } catch (Exception e) {
+                e.printStackTrace();
+                bailOut("Ausnahme \"" + e.toString() + "\"");
+            }
+            if (smInstalled)
+                System.setSecurityManager(oldsm);
+            return;
         }
 
         CFLPInstanceReader reader = new CFLPInstanceReader(fileName);
 
         try {
             CFLPInstanceReader.CFLPInstanceWithThreshold instanceWithThreshold = reader.readInstance();
-            CFLPInstance instance = instanceWithThreshold.instance;
             int threshold = instanceWithThreshold.threshold;
-            run(instance, threshold);
+            // nur kompakte Kopien bleiben, die eingelesenen Distanzen werden frei; binaere Instanzen sind schon kompakt
+            CFLPInstance instance = instanceWithThreshold.instance;
+            if (!(instance instanceof CompactCFLPInstance))
+                instance = new CompactCFLPInstance(instance);
+            instanceWithThreshold = null;
+            if (coordinatorPort > 0)
+                runWorker(instance);
+            else
+                run(instance, threshold);
             // Security Manager zuruecksetzen
-            System.setSecurityManager(oldsm);
+            if (smInstalled)
+                System.setSecurityManager(oldsm);
+            // danach enden die Worker
+            if (coordinatorProtocol != null)
+                stopCoordinator();
         } catch (SecurityException se) {
             bailOut("Unerlaubter Funktionsaufruf: \"" + se.toString() + "\"");
         } catch (IOException e1) {
-            // TODO Auto-generated catch block
-            e1.printStackTrace();
-            bailOut("Konnte Instanz nicht einlesen (I/O Fehler)");
+            bailOut("Konnte Instanz nicht einlesen (" + e1 + ")");
         } catch (Exception e) {
             e.printStackTrace();
             bailOut("Ausnahme \"" + e.toString() + "\"");
@@ -119,83 +274,648 @@ public class Main {
      * @param instance Die aktuelle Probleminstanz
      * @throws Exception Signalisiert eine Ausnahme
      */
-    @SuppressWarnings("deprecation")
     protected static void run(CFLPInstance instance, int threshold) throws Exception {
-        CFLPInstance originalInstance = new CFLPInstance(instance);
+        // kompakte Kopien: eine zur Kontrolle, die der Solver nicht kennt, und eine fuer den Solver
+        CFLPInstance originalInstance = new CompactCFLPInstance(instance);
+        if (!(instance instanceof CompactCFLPInstance))
+            instance = new CompactCFLPInstance(instance);
 
         long start = System.currentTimeMillis();
         long end = System.currentTimeMillis();
         long offs = end - start;
-        long timeout = 30000; // 30 Sekunden
 
         chopFileName();
 
-        AbstractCFLP bnbRunner = new CFLP(instance);
-        Thread thread = new Thread(bnbRunner, "CFLP Thread");
-        thread.start();
+        CFLP bnbRunner = newSolver(instance);
 
-        if (dontStop)
-            thread.join(0);
-        else {
-            // beende Thread nach timeout millisecs
-            thread.join(timeout);
-            if (thread.isAlive())
-                thread.stop();
+        // mit -c wird die Suche des letzten Checkpoints fortgesetzt
+        if (checkpointFile != null) {
+            SearchCheckpoint checkpoint = readCheckpoint(checkpointFile);
+            if (checkpoint != null) {
+                try {
+                    bnbRunner.resume(checkpoint);
+                } catch (IllegalArgumentException e) {
+                    bailOut("Checkpoint \"" + checkpointFile + "\" gehoert zu einer anderen Instanz");
+                }
+                printDebug("Setze Checkpoint fort: Loesung " + checkpoint.getCost() + ", Tiefe " + checkpoint.getDepth()
+                        + ", " + checkpoint.getElapsedNanos() / 1000000 + "ms"
+                        + (checkpoint.isComplete() ? ", vollstaendig" : ""));
+            }
         }
 
+        // mit -d wird jede neue beste Loesung sofort ausgegeben
+        if (debug)
+            bnbRunner.addIncumbentListener(new IncumbentListener() {
+                public void improved(AbstractCFLP.BnBSolution solution, long elapsedNanos, long nodes) {
+                    printDebug("Neue Loesung " + solution.getUpperBound() + " nach " + elapsedNanos / 1000000 + "ms"
+                            + (nodes >= 0 ? ", " + nodes + " Knoten" : ""));
+                }
+            });
+
+        if (processes > 0)
+            runCoordinator(bnbRunner, originalInstance, "CFLP Thread");
+        else if (checkpointFile != null)
+            runWithCheckpoints(bnbRunner, "CFLP Thread");
+        else
+            runSolver(bnbRunner, "CFLP Thread");
+
         // speichere Endzeit
         end = System.currentTimeMillis();
 
         // speichere Lösung
         AbstractCFLP.BnBSolution sol = bnbRunner.getBestSolution();
+        if (sol != null)
+            printDebug("Loesung: " + Arrays.toString(sol.getBestSolution()));
+
         // checke Lösung
-        if (sol == null) {
-            bailOut("Keine gueltige Loesung!");
+        String error = check(originalInstance, sol, threshold);
+        if (error != null)
+            bailOut(error);
+
+        // Ergebnis ausgeben
+        StringBuffer msg = new StringBuffer(test ? choppedFileName + ": " : "");
+
+        long sum = end - start - offs;
+
+        // eine abgebrochene Suche (Zeitlimit) hat nicht den ganzen Baum durchsucht
+        msg.append("Schwellwert = " + threshold + "." + " Ihr Ergebnis ist OK mit " +
+                "\n" + sol.getUpperBound() + (bnbRunner.isCancelled() ? " (abgebrochen)" : ""));
+
+        if (test)
+            msg.append(", Zeit: "
+                    + (sum > 1000 ? sum / 1000 + "s" : sum + "ms"));
+
+        System.out.println();
+        System.out.println(msg.toString());
+
+        // Statistik der Suche, falls mit --stats=true eingeschaltet
+        SearchStats stats = bnbRunner.getStats();
+        if (stats != null)
+            System.out.println(stats);
+
+        if (bnbRunner.getListenerFailure() != null)
+            printDebug("Listener fehlgeschlagen: " + bnbRunner.getListenerFailure());
+    }
+
+    /**
+     * Erzeugt einen Solver mit den Optionen der Kommandozeile.
+     *
+     * @param instance Die Probleminstanz
+     * @return Der Solver
+     */
+    private static CFLP newSolver(CFLPInstance instance) {
+        CFLP bnbRunner = new CFLP(instance);
+        for (String[] option : options)
+            bnbRunner.setOption(option[0], option[1]);
+
+        return bnbRunner;
+    }
+
+    /**
+     * L&auml;sst den Solver in einem eigenen Thread laufen und bricht ihn
+     * nach {@link #TIMEOUT} ab (au&szlig;er mit <code>-s</code>). Der Solver
+     * beendet die Suche dann selbst mit der bisher besten L&ouml;sung, reagiert
+     * er nicht innerhalb von {@link #GRACE} wird ohne ihn weitergemacht.
+     *
+     * @param bnbRunner Der Solver
+     * @param name      Der Name des Threads
+     * @throws InterruptedException Wenn der aufrufende Thread unterbrochen wird
+     */
+    private static void runSolver(CFLP bnbRunner, String name) throws InterruptedException {
+        Thread thread = new Thread(bnbRunner, name);
+        // ein Solver, der den Abbruch ignoriert, darf die JVM nicht am Leben halten
+        thread.setDaemon(true);
+        thread.start();
+
+        if (dontStop)
+            thread.join(0);
+        else {
+            // breche Suche nach timeout millisecs ab
+            thread.join(TIMEOUT);
+            if (thread.isAlive()) {
+                bnbRunner.cancel();
+                thread.join(GRACE);
+                if (thread.isAlive())
+                    printDebug("Solver reagiert nicht auf den Abbruch");
+            }
         }
+    }
+
+    /**
+     * Wie {@link #runSolver(CFLP, String)}, schreibt aber alle
+     * {@link #CHECKPOINT_INTERVAL} Millisekunden und nach dem Ende der Suche
+     * einen Checkpoint nach {@link #checkpointFile}. Geschrieben wird in
+     * einem eigenen Thread, die Suche ver&ouml;ffentlicht nur ihre Position.
+     *
+     * @param bnbRunner Der Solver
+     * @param name      Der Name des Threads
+     * @throws InterruptedException Wenn der aufrufende Thread unterbrochen wird
+     */
+    private static void runWithCheckpoints(final CFLP bnbRunner, String name) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                // der erste Checkpoint ersetzt die Datei, damit nichts an einen halb geschriebenen angehaengt wird
+                boolean replace = true;
+                try {
+                    bnbRunner.requestCheckpoint();
+                    while (!done.await(CHECKPOINT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        writeCheckpoint(bnbRunner.checkpoint(), replace);
+                        replace = false;
+                        bnbRunner.requestCheckpoint();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "CFLP Checkpoint Writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            runSolver(bnbRunner, name);
+        } finally {
+            done.countDown();
+            writer.join();
+        }
+
+        // nach dem Ende (oder Abbruch) der Suche: die Position, an der sie aufgehoert hat
+        writeCheckpoint(bnbRunner.checkpoint(), false);
+    }
+
+    /**
+     * H&auml;ngt einen Checkpoint an {@link #checkpointFile} an. Ist die
+     * Datei zu gro&szlig; (oder <code>replace</code> gesetzt), wird sie
+     * durch eine neue mit nur diesem Checkpoint ersetzt.
+     *
+     * @param checkpoint Der Checkpoint
+     * @param replace    Ob die Datei ersetzt wird
+     */
+    private static void writeCheckpoint(SearchCheckpoint checkpoint, boolean replace) {
+        File file = new File(checkpointFile);
+        try {
+            if (replace || file.length() > CHECKPOINT_MAX_BYTES) {
+                File temp = new File(checkpointFile + ".tmp");
+                appendCheckpoint(temp, checkpoint.encode(), false);
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else
+                appendCheckpoint(file, checkpoint.encode(), true);
+        } catch (IOException e) {
+            printDebug("Checkpoint konnte nicht geschrieben werden: " + e);
+        }
+    }
+
+    /**
+     * @param file   Die Datei
+     * @param record Der kodierte Checkpoint
+     * @param append Ob angeh&auml;ngt oder die Datei neu geschrieben wird
+     * @throws IOException Wenn nicht geschrieben werden kann
+     */
+    private static void appendCheckpoint(File file, ByteBuffer record, boolean append) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, append); FileChannel channel = out.getChannel()) {
+            while (record.hasRemaining())
+                channel.write(record);
+            // ueberlebt auch einen Absturz des Rechners
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Liest den letzten vollst&auml;ndigen Checkpoint einer Datei.
+     *
+     * @param fileName Die Datei
+     * @return Der Checkpoint oder <code>null</code>, wenn die Datei keinen enth&auml;lt
+     */
+    private static SearchCheckpoint readCheckpoint(String fileName) {
+        if (!new File(fileName).isFile())
+            return null;
+
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // ein unvollstaendiger letzter Checkpoint wird ignoriert
+            SearchCheckpoint last = null;
+            for (SearchCheckpoint next = SearchCheckpoint.decode(buffer); next != null; next = SearchCheckpoint.decode(buffer))
+                last = next;
+
+            return last;
+        } catch (IOException e) {
+            bailOut("Checkpoint \"" + fileName + "\" konnte nicht gelesen werden (" + e + ")");
+            return null;
+        }
+    }
+
+    /**
+     * Wie {@link #runSolver(CFLP, String)}, aber der Solver ist Koordinator
+     * von {@link #processes} Worker-Prozessen, die sich &uuml;ber einen Port
+     * auf <code>localhost</code> verbinden. Das Protokoll steht in
+     * {@link DistributedProtocol}, hier werden nur die Verbindungen
+     * angenommen. Die Worker werden schon vor dem SecurityManager gestartet,
+     * siehe {@link #startCoordinator()}.
+     *
+     * @param bnbRunner Der Solver
+     * @param instance  Die Instanz zur Kontrolle der Worker-L&ouml;sungen
+     * @param name      Der Name des Threads
+     * @throws Exception Wenn die Worker nicht gestartet werden k&ouml;nnen
+     */
+    private static void runCoordinator(CFLP bnbRunner, CFLPInstance instance, String name) throws Exception {
+        DistributedBranchAndBound distributed = bnbRunner.distribute(true, processes);
+        final DistributedProtocol protocol = new DistributedProtocol(bnbRunner, distributed, instance, coordinatorToken);
+        protocol.broadcastIncumbents();
+        coordinatorProtocol = protocol;
+
+        // die Worker warten in der Warteschlange des Servers, bis sie angenommen werden
+        final ServerSocket server = coordinatorServer;
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                acceptWorkers(server, protocol);
+            }
+        }, "CFLP Coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        // der Server bleibt offen, bis die Worker beendet sind: wer sich nach dem Ende der Suche verbindet, bekommt
+        // gleich das Ende geschickt
+        runSolver(bnbRunner, name);
+    }
+
+    /**
+     * &Ouml;ffnet den Port des Koordinators und startet die Worker. Das
+     * passiert vor dem SecurityManager, zusammen mit
+     * {@link #allowProcessReapers()}: die JDK &uuml;berwacht jeden Prozess
+     * mit einem Thread ("process reaper"), der sich beim Start und beim Ende
+     * des Prozesses umbenennt und dabei Threads erzeugt. Ohne {@link Main}
+     * auf dem Stack fehlt ihm mit SecurityManager sonst die Berechtigung,
+     * auch wenn ein Worker w&auml;hrend der Suche endet.
+     *
+     * @throws IOException Wenn der Port nicht ge&ouml;ffnet oder ein Worker
+     *                     nicht gestartet werden kann
+     */
+    private static void startCoordinator() throws IOException {
+        allowProcessReapers();
+
+        // nur Worker dieses Laufs kennen den Token
+        coordinatorToken = new SecureRandom().nextLong();
+        coordinatorServer = new ServerSocket(0, processes, InetAddress.getLoopbackAddress());
+        workerProcesses = startWorkers(coordinatorServer.getLocalPort(), coordinatorToken);
+    }
+
+    /**
+     * Erlaubt dem Code von {@link Main} Threads umzubenennen und zu
+     * erzeugen, auch wenn er nicht auf dem Stack ist. Die Threads der JDK,
+     * die die Worker-Prozesse &uuml;berwachen, erben die Rechte des Codes,
+     * der die Prozesse startet, und haben nur so beim Ende eines Workers die
+     * n&ouml;tigen Rechte. Ist {@link CFLP} auf dem Stack, verbietet der
+     * {@link ADS1SecurityManager} weiterhin alles.
+     */
+    private static void allowProcessReapers() {
+        final Policy policy = Policy.getPolicy();
+        final CodeSource main = Main.class.getProtectionDomain().getCodeSource();
+
+        Policy.setPolicy(new Policy() {
+            @Override
+            public boolean implies(ProtectionDomain domain, Permission permission) {
+                if (main != null && main.equals(domain.getCodeSource()) && permission instanceof RuntimePermission
+                        && (permission.getName().equals("modifyThread") || permission.getName().equals("modifyThreadGroup")))
+                    return true;
+
+                return policy.implies(domain, permission);
+            }
+        });
+    }
+
+    /**
+     * Beendet die Worker am Ende des Laufs, h&auml;ngende nach
+     * {@link #GRACE}, und schlie&szlig;t danach den Server.
+     *
+     * @throws InterruptedException Wenn der aufrufende Thread unterbrochen wird
+     * @throws IOException          Wenn der Server nicht geschlossen werden kann
+     */
+    private static void stopCoordinator() throws InterruptedException, IOException {
+        coordinatorProtocol.stopWorkers();
+
+        for (Process worker : workerProcesses)
+            if (!worker.waitFor(GRACE, TimeUnit.MILLISECONDS))
+                worker.destroy();
+
+        coordinatorServer.close();
+    }
+
+    /**
+     * Startet die Worker-Prozesse mit derselben JVM, demselben Classpath,
+     * denselben Optionen und derselben Datei. Den Token bekommen sie auf der
+     * Standardeingabe, die Kommandozeile kann jeder Benutzer lesen.
+     *
+     * @param port  Der Port des Koordinators
+     * @param token Der Token des Laufs
+     * @return Die Prozesse
+     * @throws IOException Wenn ein Prozess nicht gestartet werden kann
+     */
+    private static List<Process> startWorkers(int port, long token) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add("-w" + port);
+        if (debug)
+            command.add("-d");
+        for (String[] option : options)
+            command.add("--" + option[0] + "=" + option[1]);
+        command.add(fileName);
+
+        List<Process> workers = new ArrayList<Process>();
+        for (int i = 0; i < processes; ++i) {
+            Process worker = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            workers.add(worker);
+            try (DataOutputStream out = new DataOutputStream(worker.getOutputStream())) {
+                out.writeLong(token);
+            }
+        }
+
+        return workers;
+    }
+
+    /**
+     * Nimmt die Verbindungen der Worker an, jede wird von einem eigenen
+     * Thread bedient.
+     *
+     * @param server   Der Server
+     * @param protocol Das Protokoll des Koordinators
+     */
+    private static void acceptWorkers(ServerSocket server, final DistributedProtocol protocol) {
+        try {
+            for (int i = 0; i < processes; ++i) {
+                final Socket socket = server.accept();
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        serveWorker(socket, protocol);
+                    }
+                }, "CFLP Coordinator " + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // der Server wurde geschlossen
+        }
+    }
+
+    /**
+     * Bedient einen Worker, bis alle Teilb&auml;ume gel&ouml;st sind, siehe
+     * {@link DistributedProtocol#serve}.
+     *
+     * @param socket   Die Verbindung
+     * @param protocol Das Protokoll des Koordinators
+     */
+    private static void serveWorker(Socket socket, DistributedProtocol protocol) {
+        try {
+            protocol.serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            printDebug("Verbindung zu Worker beendet: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // schon geschlossen
+            }
+        }
+    }
+
+    /**
+     * L&ouml;st als Worker Teilb&auml;ume f&uuml;r den Koordinator auf
+     * {@link #coordinatorPort}, bis er das Ende schickt oder die Verbindung
+     * verloren geht. Der Token des Koordinators kommt auf der
+     * Standardeingabe.
+     *
+     * @param instance Die Probleminstanz
+     * @throws Exception Wenn keine Verbindung aufgebaut werden kann
+     */
+    private static void runWorker(CFLPInstance instance) throws Exception {
+        chopFileName();
+        long token = 0;
+        try {
+            token = new DataInputStream(System.in).readLong();
+        } catch (IOException e) {
+            bailOut("Kein Token auf der Standardeingabe (Worker startet nur der Koordinator)");
+        }
+
+        CFLP bnbRunner = newSolver(instance);
+        DistributedBranchAndBound distributed = bnbRunner.distribute(false, 0);
+        DistributedProtocol protocol = new DistributedProtocol(bnbRunner, distributed, instance, token);
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinatorPort);
+        try {
+            protocol.work(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            printDebug("Verbindung zum Koordinator verloren: " + e);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * &Uuml;berpr&uuml;ft eine L&ouml;sung.
+     *
+     * @param originalInstance Eine Kopie der Instanz, die der Solver nicht kennt
+     * @param sol              Die beste L&ouml;sung des Solvers (oder <code>null</code>)
+     * @param threshold        Der Schwellwert
+     * @return Die Fehlermeldung oder <code>null</code>, wenn die L&ouml;sung OK ist
+     */
+    private static String check(CFLPInstance originalInstance, AbstractCFLP.BnBSolution sol, int threshold) {
+        if (sol == null)
+            return "Keine gueltige Loesung!";
 
         int upper_bound = sol.getUpperBound();
 
         int[] solution = sol.getBestSolution();
         if (solution.length != originalInstance.getNumCustomers())
-            bailOut("Ihre Loesung hat zu wenige/viele Kunden!");
-
-        int[] usedBandwidths = new int[originalInstance.getNumFacilities()];
-        Arrays.fill(usedBandwidths, 0);
-        int[] connectedCustomers = new int[originalInstance.getNumFacilities()];
-        Arrays.fill(connectedCustomers, 0);
+            return "Ihre Loesung hat zu wenige/viele Kunden!";
 
         int fIdx;
         for (int i = 0; i < originalInstance.getNumCustomers(); ++i) {
             fIdx = solution[i];
             if (fIdx < 0 || fIdx >= originalInstance.getNumFacilities())
-                bailOut("Ungueltiger Facility Index!");
+                return "Ungueltiger Facility Index!";
         }
 
         int objectiveValue = originalInstance.calcObjectiveValue(solution);
 
-        if (Math.abs(objectiveValue - upper_bound) > 0) {
-            bailOut("Die obere Schranke muss immer gleich der aktuell besten Loesung sein!");
+        if (Math.abs(objectiveValue - upper_bound) > 0)
+            return "Die obere Schranke muss immer gleich der aktuell besten Loesung sein!";
+
+        if (upper_bound > threshold)
+            return "zu schlechte Loesung: Ihr Ergebnis " + upper_bound
+                    + " liegt ueber dem Schwellwert (" + threshold + ")";
+
+        return null;
+    }
+
+    /**
+     * Eine Instanz des Batch-Modus, wird vom Lese-Thread vorbereitet.
+     */
+    private static class BatchJob {
+        private final String file;
+        private final CFLPInstanceReader.CFLPInstanceWithThreshold instance;
+        private final String error;
+
+        private BatchJob(String file, CFLPInstanceReader.CFLPInstanceWithThreshold instance, String error) {
+            this.file = file;
+            this.instance = instance;
+            this.error = error;
         }
+    }
 
-        // Ergebnis ausgeben
-        StringBuffer msg = new StringBuffer(test ? choppedFileName + ": " : "");
+    /**
+     * L&ouml;st alle Instanzen mit {@link #batchThreads} gleichzeitigen
+     * Solvern, jeder mit eigenem Zeitlimit. Ein Lese-Thread liest die
+     * n&auml;chsten Instanzen ein, w&auml;hrend die aktuellen gel&ouml;st werden.
+     * Pro Instanz wird eine Zeile ausgegeben, am Ende eine Zusammenfassung.
+     *
+     * @param files Dateien und Verzeichnisse (deren Dateien nach Namen sortiert)
+     * @throws InterruptedException Wenn der Hauptthread unterbrochen wird
+     */
+    private static void runBatch(List<String> files) throws InterruptedException {
+        final List<String> paths = new ArrayList<String>();
+        for (String f : files) {
+            File file = new File(f);
+            File[] children = file.isDirectory() ? file.listFiles() : null;
+            if (children == null) {
+                paths.add(f);
+                continue;
+            }
 
-        long sum = end - start - offs;
+            Arrays.sort(children);
+            for (File child : children)
+                if (child.isFile())
+                    paths.add(child.getPath());
+        }
 
-        printDebug("Loesung: " + Arrays.toString(solution));
-        if (upper_bound > threshold)
-            bailOut("zu schlechte Loesung: Ihr Ergebnis " + upper_bound
-                    + " liegt ueber dem Schwellwert (" + threshold + ")");
+        // eingelesene Instanzen warten hier auf einen freien Solver, null beendet einen Solver
+        final BlockingQueue<BatchJob> queue = new ArrayBlockingQueue<BatchJob>(batchThreads);
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        long start = System.currentTimeMillis();
 
-        msg.append("Schwellwert = " + threshold + "." + " Ihr Ergebnis ist OK mit " +
-                "\n" + upper_bound);
+        Thread readerThread = new Thread(new Runnable() {
+            public void run() {
+                readBatch(paths, queue);
+            }
+        }, "CFLP Batch Reader");
+        readerThread.start();
 
-        if (test)
-            msg.append(", Zeit: "
-                    + (sum > 1000 ? sum / 1000 + "s" : sum + "ms"));
+        Thread[] solvers = new Thread[batchThreads];
+        for (int i = 0; i < batchThreads; ++i) {
+            solvers[i] = new Thread(new Runnable() {
+                public void run() {
+                    solveBatch(queue, ok, failed);
+                }
+            }, "CFLP Batch Solver " + i);
+            solvers[i].start();
+        }
 
-        System.out.println();
-        System.out.println(msg.toString());
+        readerThread.join();
+        for (Thread solver : solvers)
+            solver.join();
+
+        long sum = System.currentTimeMillis() - start;
+        System.out.println("Batch: " + paths.size() + " Instanzen, " + ok.get() + " OK, " + failed.get()
+                + " ERR, Zeit: " + sum + "ms, " + String.format("%.2f", paths.size() * 1000.0 / Math.max(sum, 1))
+                + " Instanzen/s");
+
+        if (failed.get() > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Liest die Instanzen der Reihe nach in die Warteschlange, danach
+     * beendet je ein <code>null</code> Eintrag die Solver.
+     *
+     * @param paths Die Dateien
+     * @param queue Die Warteschlange der Solver
+     */
+    private static void readBatch(List<String> paths, BlockingQueue<BatchJob> queue) {
+        try {
+            for (String path : paths) {
+                BatchJob job;
+                try {
+                    CFLPInstanceReader.CFLPInstanceWithThreshold read = new CFLPInstanceReader(path).readInstance();
+                    if (!(read.instance instanceof CompactCFLPInstance))
+                        read.instance = new CompactCFLPInstance(read.instance);
+                    job = new BatchJob(path, read, null);
+                } catch (Exception e) {
+                    job = new BatchJob(path, null, "Konnte Instanz nicht einlesen (" + e + ")");
+                }
+                queue.put(job);
+            }
+
+            for (int i = 0; i < batchThreads; ++i)
+                queue.put(new BatchJob(null, null, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * L&ouml;st Instanzen aus der Warteschlange bis zum <code>null</code>
+     * Eintrag und gibt f&uuml;r jede eine Zeile aus.
+     *
+     * @param queue  Die Warteschlange
+     * @param ok     Z&auml;hler der gel&ouml;sten Instanzen
+     * @param failed Z&auml;hler der Fehler
+     */
+    private static void solveBatch(BlockingQueue<BatchJob> queue, AtomicInteger ok, AtomicInteger failed) {
+        try {
+            for (BatchJob job = queue.take(); job.file != null; job = queue.take()) {
+                String error = job.error;
+                String line = null;
+                long start = System.currentTimeMillis();
+
+                if (error == null) {
+                    try {
+                        // eine eigene Kopie zur Kontrolle, wie in run()
+                        CFLPInstance originalInstance = new CompactCFLPInstance(job.instance.instance);
+                        CFLP bnbRunner = newSolver(job.instance.instance);
+                        runSolver(bnbRunner, "CFLP Thread " + job.file);
+
+                        AbstractCFLP.BnBSolution sol = bnbRunner.getBestSolution();
+                        error = check(originalInstance, sol, job.instance.threshold);
+                        if (error == null)
+                            line = "Schwellwert = " + job.instance.threshold + ". Ergebnis OK mit " + sol.getUpperBound()
+                                    + (bnbRunner.isCancelled() ? " (abgebrochen)" : "");
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        error = "Ausnahme \"" + e.toString() + "\"";
+                    }
+                }
+
+                long sum = System.currentTimeMillis() - start;
+                if (error == null) {
+                    ok.incrementAndGet();
+                    printResult(job.file + ": " + line + ", Zeit: " + (sum > 1000 ? sum / 1000 + "s" : sum + "ms"));
+                } else {
+                    failed.incrementAndGet();
+                    printResult(job.file + ": ERR " + error);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gibt eine Ergebniszeile des Batch-Modus aus (Zeilen verschiedener
+     * Solver werden nicht vermischt).
+     *
+     * @param line Die Zeile
+     */
+    private static synchronized void printResult(String line) {
+        System.out.println(line);
     }
 
     /**
@@ -232,6 +952,22 @@ public class Main {
                 test = true;
             } else if (a.equals("-d")) {
                 debug = test = true;
+            } else if (a.equals("-b")) {
+                batch = true;
+            } else if (a.startsWith("-j") && a.length() > 2) {
+                batchThreads = parseNumber(a, a.substring(2), 1, Integer.MAX_VALUE);
+            } else if (a.startsWith("-p") && a.length() > 2) {
+                processes = parseNumber(a, a.substring(2), 0, Integer.MAX_VALUE);
+            } else if (a.startsWith("-w") && a.length() > 2) {
+                coordinatorPort = parseNumber(a, a.substring(2), 1, 65535);
+                dontStop = true;
+            } else if (a.startsWith("-c") && a.length() > 2) {
+                checkpointFile = a.substring(2);
+            } else if (a.startsWith("--")) {
+                String[] option = a.substring(2).split("=", 2);
+                options.add(new String[]{option[0], option.length > 1 ? option[1] : ""});
+            } else if (batch) {
+                batchFiles.add(a);
             } else {
                 fileName = a;
 
@@ -240,6 +976,29 @@ public class Main {
         }
     }
 
+    /**
+     * Liest die Zahl eines Parameters, beendet das Programm bei einer
+     * ung&uuml;ltigen.
+     *
+     * @param arg   Der ganze Parameter (f&uuml;r die Meldung)
+     * @param value Die Zahl als String
+     * @param min   Der kleinste erlaubte Wert
+     * @param max   Der gr&ouml;&szlig;te erlaubte Wert
+     * @return Die Zahl
+     */
+    private static int parseNumber(String arg, String value, int min, int max) {
+        int number = 0;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            bailOut("Ungueltiger Parameter " + arg + " (keine Zahl)");
+        }
+        if (number < min || number > max)
+            bailOut("Ungueltiger Parameter " + arg + " (erlaubt: " + min + " bis " + max + ")");
+
+        return number;
+    }
+
     /**
      * Gibt die Meldung <code>msg</code> aus und beendet das Programm.
      *
@@ -247,7 +1006,8 @@ public class Main {
      */
     private static void bailOut(String msg) {
         System.out.println();
-        System.err.println((test ? choppedFileName + ": " : "") + "ERR " + msg);
+        // vor dem Einlesen (z.B. bei ungueltigen Parametern) gibt es noch keinen Dateinamen
+        System.err.println((test && choppedFileName != null ? choppedFileName + ": " : "") + "ERR " + msg);
         System.exit(1);
     }
 
@@ -295,6 +1055,27 @@ public class Main {
         printDebug(msg.toString());
     }
 
+    /**
+     * Schreibt ein JFR-Event der Suche, siehe {@link SearchEvents}. Das
+     * erste <code>commit()</code> eines Events l&auml;dt interne Klassen von
+     * JFR, was der SecurityManager nur mit {@link Main} auf dem Stack
+     * erlaubt.
+     *
+     * @param event Das Event
+     */
+    static void commit(SearchEvents.IncumbentEvent event) {
+        event.commit();
+    }
+
+    /**
+     * Wie {@link #commit(SearchEvents.IncumbentEvent)}.
+     *
+     * @param event Das Event
+     */
+    static void commit(SearchEvents.SummaryEvent event) {
+        event.commit();
+    }
+
     /**
      * Privater Konstruktor.
      */
@@ -0,0 +1,223 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+
+/**
+ * A full (or partial) assignment with the load and opening costs of every facility, for improvement heuristics.
+ *
+ * The cost change of reassigning one customer or swapping two only touches the distances of those customers and the
+ * opening costs of at most two facilities, so it is computed and applied in O(1) instead of the O(customers) of
+ * CFLPInstance.calcObjectiveValue(). cost() always equals calcObjectiveValue() of solution() as long as that fits
+ * into an int; costs that don't are at least CFLPInstance.OVERFLOW.
+ */
+class MoveEvaluator {
+
+    /**
+     * Instance the assignment belongs to.
+     */
+    private final CFLPInstance cflp;
+
+    /*
+     * Facility of every customer (-1 if unassigned), bandwidth and opening costs of every facility
+     */
+    private final int[] solution;
+    private final int[] loads;
+    private final long[] openingCosts;
+
+    /*
+     * Sum of the distance costs of the assigned customers and of the opening costs of all facilities
+     */
+    private long distanceCost;
+    private long openingCost;
+
+    /**
+     * Starts with every customer unassigned.
+     *
+     * @param CFLPInstance cflp
+     * O(customers + facilities)
+     */
+    MoveEvaluator(CFLPInstance cflp) {
+        this.cflp = cflp;
+        this.solution = new int[cflp.getNumCustomers()];
+        this.loads = new int[cflp.getNumFacilities()];
+        this.openingCosts = new long[cflp.getNumFacilities()];
+
+        Arrays.fill(this.solution, -1);
+        for (int f = 0; f < this.loads.length; f++) {
+            this.openingCosts[f] = this.openingCostAt(f, 0);
+            this.openingCost += this.openingCosts[f];
+        }
+    }
+
+    /**
+     * @param CFLPInstance cflp
+     * @param int[]        solution (facility of every customer, -1 if unassigned)
+     * O(customers + facilities)
+     */
+    MoveEvaluator(CFLPInstance cflp, int[] solution) {
+        this(cflp);
+
+        for (int c = 0; c < solution.length; c++) {
+            if (solution[c] >= 0) {
+                this.shift(c, solution[c]);
+            }
+        }
+    }
+
+    /**
+     * @return The costs of the assignment, like CFLPInstance.calcObjectiveValue()
+     * O(1)
+     */
+    long cost() {
+        return this.distanceCost + this.openingCost;
+    }
+
+    /**
+     * Cost change if customer c is (re)assigned to facility f.
+     *
+     * @param int c
+     * @param int f
+     * O(1)
+     */
+    long shiftDelta(int c, int f) {
+        int g = this.solution[c];
+        if (g == f) { return 0; }
+
+        int bandwidth = this.cflp.bandwidthOf(c);
+        long delta = (long) this.cflp.distance(f, c) * this.cflp.distanceCosts
+                + this.openingCostAt(f, this.loads[f] + bandwidth) - this.openingCosts[f];
+        if (g >= 0) {
+            delta += this.openingCostAt(g, this.loads[g] - bandwidth) - this.openingCosts[g]
+                    - (long) this.cflp.distance(g, c) * this.cflp.distanceCosts;
+        }
+
+        return delta;
+    }
+
+    /**
+     * (Re)assigns customer c to facility f.
+     *
+     * @param int c
+     * @param int f
+     * O(1)
+     */
+    void shift(int c, int f) {
+        int g = this.solution[c];
+        if (g == f) { return; }
+
+        int bandwidth = this.cflp.bandwidthOf(c);
+        if (g >= 0) {
+            this.distanceCost -= (long) this.cflp.distance(g, c) * this.cflp.distanceCosts;
+            this.changeLoad(g, -bandwidth);
+        }
+        this.distanceCost += (long) this.cflp.distance(f, c) * this.cflp.distanceCosts;
+        this.changeLoad(f, bandwidth);
+        this.solution[c] = f;
+    }
+
+    /**
+     * Removes the assignment of customer c.
+     *
+     * @param int c
+     * O(1)
+     */
+    void unassign(int c) {
+        int g = this.solution[c];
+        if (g < 0) { return; }
+
+        this.distanceCost -= (long) this.cflp.distance(g, c) * this.cflp.distanceCosts;
+        this.changeLoad(g, -this.cflp.bandwidthOf(c));
+        this.solution[c] = -1;
+    }
+
+    /**
+     * Cost change if the (assigned) customers a and b exchange their facilities.
+     *
+     * @param int a
+     * @param int b
+     * O(1)
+     */
+    long swapDelta(int a, int b) {
+        int fa = this.solution[a];
+        int fb = this.solution[b];
+        if (fa == fb) { return 0; }
+
+        long delta = ((long) this.cflp.distance(fb, a) + this.cflp.distance(fa, b)
+                - this.cflp.distance(fa, a) - this.cflp.distance(fb, b)) * this.cflp.distanceCosts;
+
+        // customers with the same bandwidth leave every load as it is
+        int difference = this.cflp.bandwidthOf(b) - this.cflp.bandwidthOf(a);
+        if (difference != 0) {
+            delta += this.openingCostAt(fa, this.loads[fa] + difference) - this.openingCosts[fa]
+                    + this.openingCostAt(fb, this.loads[fb] - difference) - this.openingCosts[fb];
+        }
+
+        return delta;
+    }
+
+    /**
+     * Exchanges the facilities of the (assigned) customers a and b.
+     *
+     * @param int a
+     * @param int b
+     * O(1)
+     */
+    void swap(int a, int b) {
+        int fa = this.solution[a];
+        int fb = this.solution[b];
+        if (fa == fb) { return; }
+
+        this.shift(a, fb);
+        this.shift(b, fa);
+    }
+
+    /**
+     * @param int c
+     * @return The facility of customer c, -1 if unassigned
+     * O(1)
+     */
+    int facilityOf(int c) {
+        return this.solution[c];
+    }
+
+    /**
+     * @param int f
+     * @return The bandwidth of the customers of facility f
+     * O(1)
+     */
+    int loadOf(int f) {
+        return this.loads[f];
+    }
+
+    /**
+     * @return The assignment (not a copy, only valid until the next move)
+     * O(1)
+     */
+    int[] solution() {
+        return this.solution;
+    }
+
+    /**
+     * Opening costs of facility f with the given bandwidth, CFLPInstance.OVERFLOW if they don't fit into an int.
+     *
+     * @param int f
+     * @param int bandwidth
+     * O(1)
+     */
+    long openingCostAt(int f, int bandwidth) {
+        return this.cflp.levelCost(f, this.cflp.level(f, bandwidth));
+    }
+
+    /**
+     * @param int f
+     * @param int delta
+     * O(1)
+     */
+    private void changeLoad(int f, int delta) {
+        this.loads[f] += delta;
+
+        long cost = this.openingCostAt(f, this.loads[f]);
+        this.openingCost += cost - this.openingCosts[f];
+        this.openingCosts[f] = cost;
+    }
+}
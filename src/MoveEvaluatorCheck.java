@@ -0,0 +1,156 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks MoveEvaluator against CFLPInstance.calcObjectiveValue() on small random instances, run outside of Main.
+ *
+ * Random reassign, unassign and swap moves are applied to a random partial assignment. After every move the costs
+ * of the evaluator are compared with calcObjectiveValue(), and the change with the delta it predicted.
+ *
+ * The instances are those of CFLPCrossCheck: small (up to 8 customers and 5 facilities), with ties and degenerate
+ * cases such as zero distances, copies of a facility, customers without bandwidth and facilities without opening costs.
+ *
+ * Usage: MoveEvaluatorCheck [--instances=100] [--seed=0] [--moves=2000]
+ * Prints every mismatch and a summary, the exit code is 1 if there was a mismatch.
+ */
+public class MoveEvaluatorCheck {
+
+    /*
+     * Number of random instances, seed of the first one and number of moves per instance
+     */
+    private int instances = 100;
+    private long seed = 0;
+    private int moves = 2000;
+
+    /*
+     * Counters for the summary
+     */
+    private long checkedMoves;
+    private int mismatches;
+
+    /**
+     * @param String[] args
+     */
+    public static void main(String[] args) {
+        MoveEvaluatorCheck check = new MoveEvaluatorCheck();
+
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "instances": {
+                    check.instances = Integer.parseInt(value);
+                    break;
+                }
+                case "seed": {
+                    check.seed = Long.parseLong(value);
+                    break;
+                }
+                case "moves": {
+                    check.moves = Integer.parseInt(value);
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < check.instances; i++) {
+            Random random = new Random(check.seed + i);
+            check.checkMoves(i, CFLPCrossCheck.instance(random), random);
+        }
+
+        System.out.println(check.instances + " instances, " + check.checkedMoves + " moves, " + check.mismatches
+                + " mismatches, " + (System.currentTimeMillis() - start) + "ms");
+        if (check.mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Applies random moves to a random partial assignment and compares the MoveEvaluator with calcObjectiveValue()
+     * after each one.
+     *
+     * @param int          index
+     * @param CFLPInstance instance
+     * @param Random       random
+     * O(moves * customers)
+     */
+    private void checkMoves(int index, CFLPInstance instance, Random random) {
+        int n = instance.getNumCustomers();
+        int m = instance.getNumFacilities();
+        int[] start = new int[n];
+        for (int c = 0; c < n; c++) {
+            start[c] = random.nextInt(m + 1) - 1;
+        }
+
+        MoveEvaluator evaluator = new MoveEvaluator(instance, start);
+        if (!this.exact(instance, evaluator)) {
+            this.mismatch(index, "evaluator costs " + evaluator.cost() + " for " + Arrays.toString(start));
+        }
+
+        for (int i = 0; i < this.moves; i++) {
+            long before = evaluator.cost();
+            long delta = 0;
+            String move;
+
+            int a = random.nextInt(n);
+            int kind = random.nextInt(3);
+            if (kind == 0) {
+                int f = random.nextInt(m);
+                move = "shift(" + a + ", " + f + ")";
+                delta = evaluator.shiftDelta(a, f);
+                evaluator.shift(a, f);
+            } else if (kind == 1) {
+                move = "unassign(" + a + ")";
+                evaluator.unassign(a);
+            } else {
+                int b = random.nextInt(n);
+                // swaps are only defined for assigned customers
+                if (evaluator.facilityOf(a) < 0 || evaluator.facilityOf(b) < 0) { continue; }
+
+                move = "swap(" + a + ", " + b + ")";
+                delta = evaluator.swapDelta(a, b);
+                evaluator.swap(a, b);
+            }
+
+            this.checkedMoves++;
+            if (kind != 1 && evaluator.cost() - before != delta) {
+                this.mismatch(index, move + " changed the costs by " + (evaluator.cost() - before) + ", not " + delta);
+            }
+            if (!this.exact(instance, evaluator)) {
+                this.mismatch(index, "evaluator costs " + evaluator.cost() + " after " + move + " for "
+                        + Arrays.toString(evaluator.solution()));
+            }
+        }
+    }
+
+    /**
+     * @param CFLPInstance  instance
+     * @param MoveEvaluator evaluator
+     * @return Whether the costs of the evaluator are those of calcObjectiveValue(), or at least
+     * CFLPInstance.OVERFLOW if they don't fit into an int
+     * O(customers)
+     */
+    private boolean exact(CFLPInstance instance, MoveEvaluator evaluator) {
+        try {
+            return evaluator.cost() == instance.calcObjectiveValue(evaluator.solution());
+        } catch (ArithmeticException e) {
+            return evaluator.cost() >= CFLPInstance.OVERFLOW;
+        }
+    }
+
+    /**
+     * @param int    index
+     * @param String message
+     * O(1)
+     */
+    private void mismatch(int index, String message) {
+        this.mismatches++;
+        System.out.println("instance " + index + " (seed " + (this.seed + index) + "): " + message);
+    }
+}
@@ -0,0 +1,206 @@
+package ad2.ss17.cflp;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Work-stealing parallel version of CFLP.branchAndBound().
+ *
+ * The tree is split into tasks (partial solutions) up to a fixed customer depth, below that depth every task is
+ * searched sequentially on the worker's own SearchState. Each worker owns a deque: it pushes and pops its own tasks at the head
+ * (depth first), idle workers steal from the tail of the others (the oldest, i.e. largest subtrees).
+ * All workers prune against the one incumbent stored in AbstractCFLP, so the optimum is the same as sequentially.
+ *
+ * Plain threads are used instead of a ForkJoinPool because the SecurityManager does not allow the solver to create one.
+ */
+class ParallelBranchAndBound {
+
+    /**
+     * Solver whose bounds and incumbent are used.
+     */
+    private final CFLP cflp;
+
+    /*
+     * Customer depth at which tasks are searched sequentially
+     */
+    private final int splitDepth;
+
+    /*
+     * One deque of open tasks per worker
+     */
+    private final ConcurrentLinkedDeque<Task>[] deques;
+
+    /*
+     * One incrementally updated search state per worker
+     */
+    private final SearchState[] states;
+
+    /*
+     * Number of tasks that were pushed but are not finished yet, 0 means the search is done
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /*
+     * Set when the search ends (regularly or by an error), the workers also quit once the search is cancelled
+     */
+    private volatile boolean stopped;
+
+    /*
+     * First error thrown by one of the started worker threads
+     */
+    private volatile Throwable failure;
+
+    /**
+     * @param CFLP cflp
+     * @param int  workers
+     * @param int  splitDepth
+     * O(workers)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ParallelBranchAndBound(CFLP cflp, int workers, int splitDepth) {
+        this.cflp = cflp;
+        this.splitDepth = splitDepth;
+
+        this.deques = new ConcurrentLinkedDeque[workers];
+        for (int i = 0; i < workers; i++) {
+            this.deques[i] = new ConcurrentLinkedDeque<>();
+        }
+
+        this.states = new SearchState[workers];
+        for (int i = 0; i < workers; i++) {
+            this.states[i] = cflp.newState();
+        }
+    }
+
+    /**
+     * Searches the subtree of the given solution with all workers, the calling thread is worker 0.
+     *
+     * @param int[] solution
+     * O(customers^facilities) worst case, divided by the number of workers
+     */
+    void solve(int[] solution) {
+        this.pending.incrementAndGet();
+        this.deques[0].push(new Task(solution, 0));
+
+        Thread[] threads = new Thread[this.deques.length];
+        try {
+            for (int i = 1; i < threads.length; i++) {
+                final int worker = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ParallelBranchAndBound.this.work(worker);
+                        } catch (Throwable t) {
+                            ParallelBranchAndBound.this.failure = t;
+                            ParallelBranchAndBound.this.stopped = true;
+                        }
+                    }
+                }, "CFLP Worker " + i);
+
+                // workers must never keep the JVM alive if the main thread gives up on the search
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+
+            this.work(0);
+
+            for (int i = 1; i < threads.length; i++) {
+                threads[i].join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // also reached if the calling thread fails, so the workers quit after their current task
+            this.stopped = true;
+        }
+
+        if (this.failure != null) {
+            throw new IllegalStateException("Parallel search failed", this.failure);
+        }
+    }
+
+    /**
+     * Main loop of a single worker.
+     *
+     * @param int worker
+     */
+    private void work(int worker) {
+        while (!this.stopped && !this.cflp.cancelled()) {
+            Task task = this.deques[worker].pollFirst();
+            if (task == null) {
+                task = this.steal(worker);
+            }
+
+            if (task != null) {
+                this.process(worker, task);
+                this.pending.decrementAndGet();
+            } else if (this.pending.get() == 0) {
+                return;
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest task of some other worker.
+     *
+     * @param int worker
+     * O(workers)
+     */
+    private Task steal(int worker) {
+        for (int i = 1; i < this.deques.length; i++) {
+            Task task = this.deques[(worker + i) % this.deques.length].pollLast();
+            if (task != null) {
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Either splits the task into child tasks or searches it sequentially once the split depth is reached.
+     *
+     * @param int  worker
+     * @param Task task
+     */
+    private void process(int worker, Task task) {
+        SearchState state = this.states[worker];
+        state.reset(task.solution);
+
+        if (task.customer >= this.splitDepth) {
+            this.cflp.search(state, task.customer);
+            return;
+        }
+
+        if (this.cflp.bound(state, task.customer)) { return; }
+
+        // push in reverse so the closest facility is popped first, like in the sequential recursion
+        for (int i = this.cflp.getNumFacilities() - 1; i >= 0; i--) {
+            int[] child = this.cflp.branch(task.solution, task.customer, i);
+            // the same children as sequentially: none excluded by reduced-cost fixing or dominance
+            if (!state.allowed(task.customer, child[task.customer])) { continue; }
+
+            this.pending.incrementAndGet();
+            this.deques[worker].push(new Task(child, task.customer + 1));
+        }
+
+        state.leave(task.customer);
+    }
+
+    /**
+     * Partial solution whose next unassigned customer is the given one.
+     */
+    private static final class Task {
+
+        private final int[] solution;
+        private final int customer;
+
+        private Task(int[] solution, int customer) {
+            this.solution = solution;
+            this.customer = customer;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package ad2.ss17.cflp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot of a search from which a later run continues: the incumbent, the position of the depth-first search and
+ * the work done so far, see CFLP.checkpoint() and CFLP.resume().
+ *
+ * The position is the path (facility of every customer in branching order) of the first node that was not searched
+ * yet. Every node before it in depth-first order is done, so a resumed search skips the children before the path on
+ * every level. Without a position (other traversals, or the search has not got that far) a resumed run searches the
+ * whole tree again, but starts with the incumbent.
+ *
+ * encode() writes one record, little-endian ints and longs:
+ * MAGIC VERSION CUSTOMERS FINGERPRINT ORDER FLAGS COST NODES ELAPSED PATHLENGTH PATH[PATHLENGTH] SOLUTION[CUSTOMERS]
+ * followed by the CRC32 of everything before it, so that a record that was only partly written is recognized.
+ */
+public final class SearchCheckpoint {
+
+    /**
+     * The first four bytes of a record ("CFLK").
+     */
+    static final int MAGIC = 'C' | 'F' << 8 | 'L' << 16 | 'K' << 24;
+
+    static final int VERSION = 1;
+
+    /*
+     * Bits of FLAGS
+     */
+    private static final int COMPLETE = 1;
+    private static final int HAS_SOLUTION = 2;
+    private static final int HAS_PATH = 4;
+
+    /*
+     * Identifies the instance (see fingerprint()) and the branching order (ordinal of CFLP.Order) of the path
+     */
+    private final int customers;
+    private final long fingerprint;
+    private final int order;
+
+    /*
+     * The incumbent in the customer order of the instance, null if there is none
+     */
+    private final int cost;
+    private final int[] solution;
+
+    /*
+     * First node that was not searched yet, null if unknown; whether the whole tree was searched
+     */
+    private final int[] path;
+    private final boolean complete;
+
+    /*
+     * Nodes (only counted with statistics) and time of all runs so far
+     */
+    private final long nodes;
+    private final long elapsedNanos;
+
+    /**
+     * @param int     customers
+     * @param long    fingerprint
+     * @param int     order
+     * @param int     cost
+     * @param int[]   solution (null if none)
+     * @param int[]   path (null if unknown)
+     * @param boolean complete
+     * @param long    nodes
+     * @param long    elapsedNanos
+     * O(1), the arrays are not copied
+     */
+    SearchCheckpoint(int customers, long fingerprint, int order, int cost, int[] solution, int[] path,
+                     boolean complete, long nodes, long elapsedNanos) {
+        this.customers = customers;
+        this.fingerprint = fingerprint;
+        this.order = order;
+        this.cost = cost;
+        this.solution = solution;
+        this.path = path;
+        this.complete = complete;
+        this.nodes = nodes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Hash of everything that defines the instance, a checkpoint is only resumed on the same instance.
+     *
+     * @param CFLPInstance instance
+     * O(customers * facilities)
+     */
+    static long fingerprint(CFLPInstance instance) {
+        long hash = 31L * instance.getNumFacilities() + instance.getNumCustomers();
+        hash = 31 * hash + instance.distanceCosts;
+        for (int f = 0; f < instance.getNumFacilities(); f++) {
+            hash = 31 * hash + instance.maxBandwidthOf(f);
+            hash = 31 * hash + instance.baseOpeningCostsOf(f);
+            for (int c = 0; c < instance.getNumCustomers(); c++) {
+                hash = 31 * hash + instance.distance(f, c);
+            }
+        }
+        for (int c = 0; c < instance.getNumCustomers(); c++) {
+            hash = 31 * hash + instance.bandwidthOf(c);
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return The record of this checkpoint, see the class comment
+     * O(customers)
+     */
+    public ByteBuffer encode() {
+        int pathLength = this.path == null ? 0 : this.path.length;
+        int solutionLength = this.solution == null ? 0 : this.customers;
+        ByteBuffer buffer = ByteBuffer.allocate(7 * 4 + 3 * 8 + 4 * (pathLength + solutionLength) + 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        int flags = (this.complete ? COMPLETE : 0) | (this.solution != null ? HAS_SOLUTION : 0)
+                | (this.path != null ? HAS_PATH : 0);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(this.customers).putLong(this.fingerprint).putInt(this.order)
+                .putInt(flags).putInt(this.cost).putLong(this.nodes).putLong(this.elapsedNanos).putInt(pathLength);
+        for (int i = 0; i < pathLength; i++) {
+            buffer.putInt(this.path[i]);
+        }
+        for (int c = 0; c < solutionLength; c++) {
+            buffer.putInt(this.solution[c]);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Reads a record written by encode() from the position of the buffer on.
+     *
+     * @param ByteBuffer buffer
+     * @return The checkpoint, null if the buffer holds no complete and intact record (the position is unchanged then)
+     * O(customers)
+     */
+    public static SearchCheckpoint decode(ByteBuffer buffer) {
+        ByteBuffer record = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (record.remaining() < 7 * 4 + 3 * 8 + 8 || record.getInt() != MAGIC || record.getInt() != VERSION) {
+            return null;
+        }
+
+        int customers = record.getInt();
+        long fingerprint = record.getLong();
+        int order = record.getInt();
+        int flags = record.getInt();
+        int cost = record.getInt();
+        long nodes = record.getLong();
+        long elapsedNanos = record.getLong();
+        int pathLength = record.getInt();
+
+        int solutionLength = (flags & HAS_SOLUTION) != 0 ? customers : 0;
+        if (customers < 0 || pathLength < 0 || pathLength > customers
+                || record.remaining() < 4L * pathLength + 4L * solutionLength + 8) {
+            return null;
+        }
+
+        int[] path = new int[pathLength];
+        for (int i = 0; i < pathLength; i++) {
+            path[i] = record.getInt();
+        }
+        int[] solution = new int[solutionLength];
+        for (int c = 0; c < solutionLength; c++) {
+            solution[c] = record.getInt();
+        }
+
+        // everything before the checksum
+        ByteBuffer content = record.duplicate();
+        content.flip();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (record.getLong() != crc.getValue()) { return null; }
+
+        buffer.position(buffer.position() + record.position());
+        return new SearchCheckpoint(customers, fingerprint, order, cost, (flags & HAS_SOLUTION) != 0 ? solution : null,
+                (flags & HAS_PATH) != 0 ? path : null, (flags & COMPLETE) != 0, nodes, elapsedNanos);
+    }
+
+    long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return The costs of the incumbent, -1 if there is none
+     */
+    public int getCost() {
+        return this.solution == null ? -1 : this.cost;
+    }
+
+    /**
+     * @return The incumbent in the customer order of the instance, null if there is none
+     */
+    public int[] getSolution() {
+        return this.solution == null ? null : this.solution.clone();
+    }
+
+    /**
+     * @return The path of the first node that was not searched yet, null if unknown
+     */
+    int[] getPath() {
+        return this.path == null ? null : this.path.clone();
+    }
+
+    /**
+     * @return Whether the whole tree was searched, i.e. the incumbent is optimal
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return Depth of the position, -1 if unknown
+     */
+    public int getDepth() {
+        return this.path == null ? -1 : this.path.length;
+    }
+}
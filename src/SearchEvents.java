@@ -0,0 +1,172 @@
+package ad2.ss17.cflp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the search, emitted with setOption("jfr", "true").
+ *
+ * Only this class (and Main.commit()) refers to jdk.jfr, so the solver still runs on JVMs without JFR as long as the
+ * option is off. Without a running recording commit() returns right away. JFR initialises itself with lambdas, which
+ * the SecurityManager of Main forbids, so init() has to run before it is installed. The first commit() of an event
+ * type loads classes of jdk.jfr.internal, which the SecurityManager only allows with Main on the stack, so every event
+ * is committed through Main.commit(). If JFR fails, the events are turned off and the cause shows up in
+ * CFLP.getStats().
+ */
+class SearchEvents {
+
+    /*
+     * First error of JFR, the search then runs without events
+     */
+    private static volatile Throwable failure;
+
+    /**
+     * A new best solution.
+     */
+    @Name("ad2.cflp.Incumbent")
+    @Label("CFLP Incumbent")
+    @Category("CFLP")
+    @Description("The branch and bound found a better solution")
+    static final class IncumbentEvent extends Event {
+
+        @Label("Costs")
+        int cost;
+
+        @Label("Since start")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Source")
+        String source;
+    }
+
+    /**
+     * Counters of a finished search.
+     */
+    @Name("ad2.cflp.SearchSummary")
+    @Label("CFLP Search Summary")
+    @Category("CFLP")
+    @Description("Node and prune counters of a finished branch and bound")
+    static final class SummaryEvent extends Event {
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Pruned by bound")
+        long prunedByBound;
+
+        @Label("Pruned exact")
+        long prunedExact;
+
+        @Label("Pruned by Lagrangian")
+        long prunedByLagrangian;
+
+        @Label("Pruned by transposition")
+        long prunedByTransposition;
+
+        @Label("Leaves")
+        long leaves;
+
+        @Label("Excluded children")
+        long excludedChildren;
+
+        @Label("Dominated children")
+        long dominatedChildren;
+
+        @Label("Improvements")
+        long improvements;
+
+        @Label("Root lower bound")
+        long rootLowerBound;
+    }
+
+    /**
+     * Registers the event types with JFR.
+     *
+     * O(1)
+     */
+    static void init() {
+        try {
+            new IncumbentEvent();
+            new SummaryEvent();
+        } catch (LinkageError | SecurityException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * @param long   elapsed (nanoseconds since the start of the search)
+     * @param int    cost
+     * @param String source
+     * O(1)
+     */
+    static void incumbent(long elapsed, int cost, String source) {
+        if (failure != null) { return; }
+
+        try {
+            IncumbentEvent event = new IncumbentEvent();
+            if (!event.shouldCommit()) { return; }
+
+            event.elapsed = elapsed;
+            event.cost = cost;
+            event.source = source;
+            Main.commit(event);
+        } catch (LinkageError | SecurityException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * @param SearchStats stats
+     * O(1)
+     */
+    static void summary(SearchStats stats) {
+        if (failure != null) { return; }
+
+        try {
+            SummaryEvent event = new SummaryEvent();
+            if (!event.shouldCommit()) { return; }
+
+            event.nodes = stats.nodes;
+            event.prunedByBound = stats.prunedByBound;
+            event.prunedExact = stats.prunedExact;
+            event.prunedByLagrangian = stats.prunedByLagrangian;
+            event.prunedByTransposition = stats.prunedByTransposition;
+            event.leaves = stats.leaves;
+            event.excludedChildren = stats.excludedChildren;
+            event.dominatedChildren = stats.dominatedChildren;
+            event.improvements = stats.improvements;
+            event.rootLowerBound = stats.rootLowerBound;
+            Main.commit(event);
+        } catch (LinkageError | SecurityException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * @return Why the events were turned off, null if JFR works (so far)
+     * O(1)
+     */
+    static Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * Turns the events off for good after JFR failed.
+     *
+     * @param Throwable cause
+     * O(1)
+     */
+    private static synchronized void disable(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+    }
+
+    private SearchEvents() {
+    }
+}
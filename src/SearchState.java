@@ -0,0 +1,661 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+
+/**
+ * Partial solution of the search together with everything the bounds need, updated incrementally.
+ *
+ * Two assignments are maintained side by side:
+ * - the partial one (only assigned customers), its cost plus the shortest distances of the unassigned customers is
+ *   the lower bound,
+ * - the completed one where every unassigned customer uses its closest facility, its cost is the upper bound.
+ * assign() and unassign() only touch the two facilities involved, so both bounds are available in O(1).
+ */
+class SearchState {
+
+    /**
+     * Instance the state belongs to.
+     */
+    private final CFLPInstance cflp;
+
+    /*
+     * levelRates[f][level]: cheapest opening costs per additional bandwidth when raising f from that level
+     */
+    private final double[][] levelRates;
+
+    /*
+     * Bandwidth of all customers
+     */
+    private final long totalBandwidth;
+
+    /*
+     * Closest facility of every customer
+     */
+    private final int[] nearest;
+
+    /*
+     * Bit set of the facilities the search may use (all bits set if every facility may be used)
+     */
+    private long usable = -1L;
+
+    /*
+     * Only if restricted: level 1 costs of every usable facility, which must all be used, and the level 1 costs and
+     * bandwidth of the usable ones that are still empty
+     */
+    private long[] requiredCosts;
+    private long requiredCost;
+    private long requiredSpare;
+
+    /*
+     * Assigned facility of every customer, -1 if unassigned
+     */
+    private final int[] solution;
+
+    /*
+     * Buffer for completedSolution(), reused so that registering a new incumbent does not allocate
+     */
+    private final int[] completed;
+
+    /*
+     * Explicit stack of the iterative search: next preference index to branch on for every customer
+     */
+    final int[] branches;
+
+    /*
+     * Explicit stack of the iterative search with a dynamic order: customer branched on at every depth
+     */
+    final int[] branched;
+
+    /*
+     * Nodes left until the search reads the clock for its deadline next, see CancellationToken
+     */
+    int ticks;
+
+    /*
+     * Bandwidth of the assigned customers per facility
+     */
+    private final int[] loads;
+
+    /*
+     * Scratch array of mostConstrained(): opening costs of every facility at its current load
+     */
+    private final long[] currentOpeningCosts;
+
+    /*
+     * Bandwidth per facility if every unassigned customer uses its closest facility
+     */
+    private final int[] completedLoads;
+
+    /*
+     * Distance + opening costs of the assigned customers
+     */
+    private long partialCost;
+
+    /*
+     * Distance costs of the assigned customers (part of partialCost)
+     */
+    private long partialDistanceCost;
+
+    /*
+     * Sum of the shortest connection costs of all unassigned customers
+     */
+    private long remainingCost;
+
+    /*
+     * Bandwidth of the unassigned customers and unused bandwidth of the levels of the assigned ones
+     */
+    private long remainingBandwidth;
+    private long spareBandwidth;
+
+    /*
+     * Distance + opening costs of the completed assignment
+     */
+    private long completedCost;
+
+    /*
+     * Optional Lagrangian bound on this state, null if disabled
+     */
+    private LagrangianBound lagrangian;
+
+    /*
+     * Dominance and symmetry rules for the children of a node, null if disabled
+     */
+    private Dominance dominance;
+
+    /*
+     * Cache of the load vectors searched so far and the hash of the current one, null if disabled
+     */
+    private TranspositionTable transpositions;
+    private long loadHash;
+
+    /*
+     * Counters of the search on this state, null if disabled
+     */
+    private SearchStats stats;
+
+    /**
+     * Creates the state of the empty solution.
+     *
+     * @param CFLPInstance cflp
+     * @param int[]        nearest
+     * @param double[][]   levelRates
+     * O(customers + facilities)
+     */
+    SearchState(CFLPInstance cflp, int[] nearest, double[][] levelRates) {
+        this.cflp = cflp;
+        this.nearest = nearest;
+        this.levelRates = levelRates;
+
+        long total = 0;
+        for (int c = 0; c < cflp.getNumCustomers(); c++) {
+            total += cflp.bandwidthOf(c);
+        }
+        this.totalBandwidth = total;
+
+        this.solution = new int[cflp.getNumCustomers()];
+        this.completed = new int[cflp.getNumCustomers()];
+        this.branches = new int[cflp.getNumCustomers() + 1];
+        this.branched = new int[cflp.getNumCustomers() + 1];
+        this.loads = new int[cflp.getNumFacilities()];
+        this.currentOpeningCosts = new long[cflp.getNumFacilities()];
+        this.completedLoads = new int[cflp.getNumFacilities()];
+
+        this.clear();
+    }
+
+    /**
+     * Resets the state to the given partial solution.
+     *
+     * @param int[] partial
+     * O(customers + facilities)
+     */
+    void reset(int[] partial) {
+        this.clear();
+        if (this.lagrangian != null) {
+            this.lagrangian.clear();
+        }
+
+        for (int c = 0; c < partial.length; c++) {
+            if (partial[c] >= 0) {
+                this.assign(c, partial[c]);
+            }
+        }
+    }
+
+    /**
+     * Restricts the state to the given facilities and resets it to the empty solution. The closest facilities must be
+     * among them, so that the completed assignment only uses them and the lower bound only counts their distances.
+     * Every usable facility has to get customers: the lower bound includes level 1 of the empty ones (solutions
+     * that leave one of them empty belong to a smaller set of facilities). Customers without bandwidth don't use a
+     * facility: they may only be assigned to their entry of nearest, which may be any facility.
+     *
+     * @param int[] nearest (closest usable facility of every customer, for customers without bandwidth any)
+     * @param long  usable (bit set, at most 64 facilities)
+     * O(customers + facilities)
+     */
+    void restrict(int[] nearest, long usable) {
+        System.arraycopy(nearest, 0, this.nearest, 0, this.nearest.length);
+        this.usable = usable;
+
+        // the entries were searched with other facilities
+        if (this.transpositions != null) {
+            this.transpositions.clear();
+        }
+
+        this.requiredCosts = new long[this.loads.length];
+        for (int f = 0; f < this.loads.length; f++) {
+            this.requiredCosts[f] = (usable >>> f & 1) != 0 ? this.levelCost(f, 1) : 0;
+        }
+
+        this.clear();
+        if (this.lagrangian != null) {
+            this.lagrangian.clear();
+        }
+    }
+
+    /**
+     * Assigns the (unassigned) customer c to the facility f.
+     *
+     * @param int c
+     * @param int f
+     * O(1)
+     */
+    void assign(int c, int f) {
+        int bandwidth = this.cflp.bandwidthOf(c);
+        int n = this.nearest[c];
+        long distanceCost = (long) this.cflp.distance(f, c) * this.cflp.distanceCosts;
+        long shortestCost = (long) this.cflp.distance(n, c) * this.cflp.distanceCosts;
+
+        this.solution[c] = f;
+        boolean empty = this.loads[f] == 0;
+
+        this.partialDistanceCost += distanceCost;
+        this.remainingBandwidth -= bandwidth;
+        this.spareBandwidth -= this.spare(f);
+        this.partialCost += distanceCost + this.changeLoad(this.loads, f, bandwidth);
+        this.spareBandwidth += this.spare(f);
+        this.remainingCost -= shortestCost;
+        if (empty && this.requiredCosts != null && this.loads[f] > 0) {
+            this.required(f, -1);
+        }
+        if (this.transpositions != null) {
+            this.loadHash += this.transpositions.weight(f, bandwidth);
+        }
+
+        // in the completed assignment the customer moves from its closest facility to f
+        this.completedCost += distanceCost - shortestCost
+                + this.changeLoad(this.completedLoads, n, -bandwidth)
+                + this.changeLoad(this.completedLoads, f, bandwidth);
+    }
+
+    /**
+     * Reverts assign(c, f).
+     *
+     * @param int c
+     * O(1)
+     */
+    void unassign(int c) {
+        int f = this.solution[c];
+        int bandwidth = this.cflp.bandwidthOf(c);
+        int n = this.nearest[c];
+        long distanceCost = (long) this.cflp.distance(f, c) * this.cflp.distanceCosts;
+        long shortestCost = (long) this.cflp.distance(n, c) * this.cflp.distanceCosts;
+
+        this.solution[c] = -1;
+
+        this.partialDistanceCost -= distanceCost;
+        this.remainingBandwidth += bandwidth;
+        this.spareBandwidth -= this.spare(f);
+        this.partialCost -= distanceCost - this.changeLoad(this.loads, f, -bandwidth);
+        this.spareBandwidth += this.spare(f);
+        this.remainingCost += shortestCost;
+        if (bandwidth > 0 && this.requiredCosts != null && this.loads[f] == 0) {
+            this.required(f, 1);
+        }
+        if (this.transpositions != null) {
+            this.loadHash -= this.transpositions.weight(f, bandwidth);
+        }
+
+        this.completedCost -= distanceCost - shortestCost
+                - this.changeLoad(this.completedLoads, f, -bandwidth)
+                - this.changeLoad(this.completedLoads, n, bandwidth);
+    }
+
+    /**
+     * Costs of the assigned customers + shortest connection costs of all others.
+     *
+     * O(1)
+     */
+    long lowerBound() {
+        return this.partialCost + this.remainingCost + this.requiredCost;
+    }
+
+    /**
+     * Opening costs the unassigned customers cause at least: their bandwidth that does not fit into the spare
+     * bandwidth of the current levels needs higher levels or new facilities, each unit costs at least the
+     * cheapest rate any facility offers from its current level.
+     *
+     * O(facilities) if the spare bandwidth is exceeded, O(1) otherwise
+     */
+    long capacityBound() {
+        long missing = this.remainingBandwidth - this.spareBandwidth - this.requiredSpare;
+        if (missing <= 0) { return 0; }
+
+        double rate = Double.POSITIVE_INFINITY;
+        for (int f = 0; f < this.loads.length; f++) {
+            if ((this.usable >>> f & 1) == 0) { continue; }
+
+            // level 1 of the required facilities is already in the lower bound
+            int level = this.level(f, this.loads[f]);
+            if (level == 0 && this.requiredCosts != null) {
+                level = 1;
+            }
+            rate = Math.min(rate, level < this.levelRates[f].length ? this.levelRates[f][level] : 0);
+        }
+
+        return rate == Double.POSITIVE_INFINITY ? 0 : (long) Math.ceil(missing * rate - 1e-6);
+    }
+
+    /**
+     * Distance costs of the assigned customers.
+     *
+     * O(1)
+     */
+    long partialDistanceCost() {
+        return this.partialDistanceCost;
+    }
+
+    /**
+     * Costs if every unassigned customer is connected to its closest facility (a valid solution).
+     *
+     * O(1)
+     */
+    long upperBound() {
+        return this.completedCost;
+    }
+
+    /**
+     * The solution whose cost is upperBound(). (the array is reused by the next call)
+     *
+     * O(customers)
+     */
+    int[] completedSolution() {
+        for (int c = 0; c < this.completed.length; c++) {
+            this.completed[c] = this.solution[c] < 0 ? this.nearest[c] : this.solution[c];
+        }
+
+        return this.completed;
+    }
+
+    /**
+     * The unassigned customer with the largest regret: the difference between the costs of its two cheapest
+     * facilities with the current loads (distance plus additional opening costs). Ties go to the lower index.
+     * A scan over many customers takes long, so the token is checked every CancellationToken.CHECK_INTERVAL of them.
+     *
+     * @param CancellationToken token
+     * @return The customer, -1 if all are assigned or the search was cancelled
+     * O(customers * facilities)
+     */
+    int mostConstrained(CancellationToken token) {
+        int customer = -1;
+        long maxRegret = -1;
+
+        // the opening costs at the current loads are the same for every customer
+        long[] current = this.currentOpeningCosts;
+        for (int f = 0; f < this.loads.length; f++) {
+            current[f] = this.openingCost(f, this.loads[f]);
+        }
+
+        for (int c = 0, scanned = 0; c < this.solution.length; c++) {
+            if (this.solution[c] >= 0) { continue; }
+
+            if (++scanned % CancellationToken.CHECK_INTERVAL == 0 && token.check()) { return -1; }
+
+            long first = Long.MAX_VALUE, second = Long.MAX_VALUE;
+            for (int f = 0; f < this.loads.length; f++) {
+                long cost = (long) this.cflp.distance(f, c) * this.cflp.distanceCosts
+                        + this.openingCost(f, this.loads[f] + this.cflp.bandwidthOf(c)) - current[f];
+                if (cost < first) {
+                    second = first;
+                    first = cost;
+                } else if (cost < second) {
+                    second = cost;
+                }
+            }
+
+            long regret = second == Long.MAX_VALUE ? 0 : second - first;
+            if (regret > maxRegret) {
+                maxRegret = regret;
+                customer = c;
+            }
+        }
+
+        return customer;
+    }
+
+    /**
+     * Facility of the customer c, -1 if unassigned.
+     *
+     * @param int c
+     * O(1)
+     */
+    int facilityOf(int c) {
+        return this.solution[c];
+    }
+
+    /**
+     * Bandwidth of the assigned customers of facility f.
+     *
+     * @param int f
+     * O(1)
+     */
+    int loadOf(int f) {
+        return this.loads[f];
+    }
+
+    /**
+     * Opening costs of facility f with the given bandwidth, CFLPInstance.OVERFLOW if they don't fit into an int.
+     *
+     * @param int f
+     * @param int bandwidth
+     * O(1)
+     */
+    long openingCost(int f, int bandwidth) {
+        return this.cflp.levelCost(f, this.cflp.level(f, bandwidth));
+    }
+
+    /**
+     * Opening costs of facility f at level k.
+     *
+     * @param int f
+     * @param int k
+     * O(1)
+     */
+    long levelCost(int f, int k) {
+        return this.cflp.levelCost(f, k);
+    }
+
+    /**
+     * Highest level of facility f that can be needed (all customers assigned to it).
+     *
+     * @param int f
+     * O(1)
+     */
+    int maxLevel(int f) {
+        return this.cflp.level(f, this.totalBandwidth);
+    }
+
+    /**
+     * Enables the Lagrangian bound with the given number of subgradient iterations per node, down to the given depth.
+     *
+     * @param int iterations
+     * @param int maxDepth
+     * O(customers * facilities)
+     */
+    void useLagrangian(int iterations, int maxDepth) {
+        this.lagrangian = new LagrangianBound(this.cflp, this, iterations, maxDepth);
+    }
+
+    /**
+     * @return The Lagrangian bound of this state, null if disabled
+     * O(1)
+     */
+    LagrangianBound lagrangian() {
+        return this.lagrangian;
+    }
+
+    /**
+     * Lets allowed() also exclude children by the given dominance and symmetry rules.
+     *
+     * @param Dominance dominance
+     * O(1)
+     */
+    void useDominance(Dominance dominance) {
+        this.dominance = dominance;
+    }
+
+    /**
+     * Lets transposed() prune nodes whose load vector was searched before with lower partial costs.
+     *
+     * @param TranspositionTable transpositions
+     * O(customers)
+     */
+    void useTranspositions(TranspositionTable transpositions) {
+        this.transpositions = transpositions;
+
+        this.loadHash = 0;
+        for (int f = 0; f < this.loads.length; f++) {
+            this.loadHash += transpositions.weight(f, this.loads[f]);
+        }
+    }
+
+    /**
+     * Whether the node is dominated by a node at the same depth with the same loads and lower partial costs, which
+     * was searched before. Otherwise the node is remembered. Only valid if the first depth customers are assigned.
+     *
+     * @param int depth
+     * O(TranspositionTable.WAYS * facilities), O(1) if disabled
+     */
+    boolean transposed(int depth) {
+        if (this.transpositions == null || !this.transpositions.dominated(this.loadHash, depth, this.loads, this.partialCost)) {
+            return false;
+        }
+
+        if (this.stats != null) {
+            this.stats.prunedByTransposition++;
+        }
+        return true;
+    }
+
+    /**
+     * Lets the search count its work on this state in the given statistics.
+     *
+     * @param SearchStats stats
+     * O(1)
+     */
+    void useStats(SearchStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return The statistics of this state, null if disabled
+     * O(1)
+     */
+    SearchStats stats() {
+        return this.stats;
+    }
+
+    /**
+     * Must be called when the search enters the node of the given customer.
+     *
+     * @param int customer
+     * O(1)
+     */
+    void enter(int customer) {
+        if (this.lagrangian != null) {
+            this.lagrangian.enter(customer);
+        }
+    }
+
+    /**
+     * Must be called when the search leaves the node of the given customer (after its children).
+     *
+     * @param int customer
+     * O(1) amortized
+     */
+    void leave(int customer) {
+        if (this.lagrangian != null) {
+            this.lagrangian.leave(customer);
+        }
+    }
+
+    /**
+     * @param int c
+     * @param int f
+     * @return Whether the search may still assign c to f (false if restricted, excluded by reduced-cost fixing or
+     *         dominated)
+     * O(1), O(Dominance.MAX_PARTNERS) with dominance rules
+     */
+    boolean allowed(int c, int f) {
+        if (this.requiredCosts != null && this.cflp.bandwidthOf(c) == 0) { return f == this.nearest[c]; }
+        if ((this.usable >>> f & 1) == 0) { return false; }
+
+        if (this.lagrangian != null && !this.lagrangian.allowed(c, f)) {
+            if (this.stats != null) {
+                this.stats.excludedChildren++;
+            }
+            return false;
+        }
+
+        if (this.dominance != null && this.dominance.dominated(this, c, f)) {
+            if (this.stats != null) {
+                this.stats.dominatedChildren++;
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Unused bandwidth of the current level of facility f.
+     *
+     * @param int f
+     * O(1)
+     */
+    private long spare(int f) {
+        return (long) this.level(f, this.loads[f]) * this.cflp.maxBandwidthOf(f) - this.loads[f];
+    }
+
+    /**
+     * Level the facility f needs for the given bandwidth.
+     *
+     * @param int f
+     * @param int bandwidth
+     * O(1)
+     */
+    int level(int f, int bandwidth) {
+        return this.cflp.level(f, bandwidth);
+    }
+
+    /**
+     * Adds (1) or removes (-1) the empty usable facility f to or from the required costs and bandwidth.
+     *
+     * @param int f
+     * @param int sign
+     * O(1)
+     */
+    private void required(int f, int sign) {
+        this.requiredCost += sign * this.requiredCosts[f];
+        this.requiredSpare += sign * (long) this.cflp.maxBandwidthOf(f);
+    }
+
+    /**
+     * Empties the partial solution.
+     *
+     * O(customers + facilities)
+     */
+    private void clear() {
+        Arrays.fill(this.solution, -1);
+        Arrays.fill(this.loads, 0);
+        Arrays.fill(this.completedLoads, 0);
+
+        this.partialCost = 0;
+        this.partialDistanceCost = 0;
+        this.remainingBandwidth = 0;
+        this.spareBandwidth = 0;
+        this.remainingCost = 0;
+        this.completedCost = 0;
+        this.requiredCost = 0;
+        this.requiredSpare = 0;
+        this.loadHash = 0;
+
+        for (int f = 0; this.requiredCosts != null && f < this.loads.length; f++) {
+            if ((this.usable >>> f & 1) != 0) {
+                this.required(f, 1);
+            }
+        }
+
+        for (int c = 0; c < this.solution.length; c++) {
+            long shortestCost = (long) this.cflp.distance(this.nearest[c], c) * this.cflp.distanceCosts;
+            this.remainingCost += shortestCost;
+            this.remainingBandwidth += this.cflp.bandwidthOf(c);
+            this.completedCost += shortestCost + this.changeLoad(this.completedLoads, this.nearest[c], this.cflp.bandwidthOf(c));
+        }
+    }
+
+    /**
+     * Changes the bandwidth of facility f in the given load vector and returns the change of its opening costs.
+     *
+     * @param int[] loadVector
+     * @param int   f
+     * @param int   delta
+     * O(1)
+     */
+    private long changeLoad(int[] loadVector, int f, int delta) {
+        long oldCost = this.openingCost(f, loadVector[f]);
+        loadVector[f] += delta;
+
+        return this.openingCost(f, loadVector[f]) - oldCost;
+    }
+}
@@ -0,0 +1,325 @@
+package ad2.ss17.cflp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counters of the tree search and the timeline of incumbents.
+ *
+ * Every SearchState has its own instance (no contention between workers, plain increments), CFLP.getStats() adds
+ * them up. The counters are only touched if statistics are enabled, otherwise the search sees a null check per node.
+ */
+public class SearchStats {
+
+    /*
+     * Nodes bounded (entered) by the search
+     */
+    long nodes;
+
+    /*
+     * Nodes pruned because lower >= incumbent, because upper == lower (the completed solution is optimal for the
+     * subtree) or because every customer is assigned (leaves, counted before upper == lower which holds there too)
+     */
+    long prunedByBound;
+    long prunedExact;
+    long leaves;
+
+    /*
+     * Nodes pruned only by the Lagrangian bound, and how often it was computed
+     */
+    long prunedByLagrangian;
+    long lagrangianCalls;
+
+    /*
+     * Nodes pruned because a node with the same loads and lower partial costs was searched before
+     */
+    long prunedByTransposition;
+
+    /*
+     * Children skipped because reduced-cost fixing excluded them
+     */
+    long excludedChildren;
+
+    /*
+     * Children skipped because a dominance or symmetry rule excluded them
+     */
+    long dominatedChildren;
+
+    /*
+     * Calls of setSolution() and how many of them improved the incumbent
+     */
+    long solutionCalls;
+    long improvements;
+
+    /*
+     * Best lower bound of the empty solution (root), -1 if unknown
+     */
+    long rootLowerBound = -1;
+
+    /*
+     * Whether the search was cancelled before it was complete (the last incumbent may not be optimal)
+     */
+    boolean cancelled;
+
+    /*
+     * Why JFR events could not be emitted, null if they could or weren't enabled
+     */
+    Throwable jfrFailure;
+
+    /**
+     * Number of values of counters().
+     */
+    static final int COUNTERS = 12;
+
+    /*
+     * Incumbents in the order they were found (only the statistics of CFLP itself record them)
+     */
+    private final List<Incumbent> timeline = new ArrayList<Incumbent>();
+
+    /**
+     * One improvement of the best solution.
+     */
+    public static final class Incumbent {
+
+        /*
+         * Time since the start of the solver in nanoseconds and the new costs
+         */
+        private final long nanos;
+        private final int cost;
+
+        /*
+         * Where the solution was found ("warm start", "search")
+         */
+        private final String source;
+
+        /**
+         * @param long   nanos
+         * @param int    cost
+         * @param String source
+         * O(1)
+         */
+        Incumbent(long nanos, int cost, String source) {
+            this.nanos = nanos;
+            this.cost = cost;
+            this.source = source;
+        }
+
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        public int getCost() {
+            return this.cost;
+        }
+
+        public String getSource() {
+            return this.source;
+        }
+    }
+
+    /**
+     * Counts a bounded node and why it was pruned, in the order CFLP.shouldBound() checks the conditions.
+     *
+     * @param int     customer
+     * @param int     customers
+     * @param long    lower
+     * @param long    upper
+     * @param long    incumbent (Long.MAX_VALUE if none)
+     * @param boolean pruned
+     * @param boolean lagrangian (whether the Lagrangian bound was computed)
+     * O(1)
+     */
+    void node(int customer, int customers, long lower, long upper, long incumbent, boolean pruned, boolean lagrangian) {
+        this.nodes++;
+        if (lagrangian) {
+            this.lagrangianCalls++;
+        }
+        if (customer == 0) {
+            this.rootLowerBound = Math.max(this.rootLowerBound, lower);
+        }
+
+        if (!pruned) { return; }
+
+        if (lagrangian) {
+            this.prunedByLagrangian++;
+        } else if (lower >= incumbent) {
+            this.prunedByBound++;
+        } else if (customer >= customers) {
+            this.leaves++;
+        } else {
+            this.prunedExact++;
+        }
+    }
+
+    /**
+     * Adds the counters and the timeline of the other statistics to these.
+     *
+     * @param SearchStats other
+     * O(improvements of other)
+     */
+    void add(SearchStats other) {
+        for (Incumbent incumbent : other.getTimeline()) {
+            this.addIncumbent(incumbent.nanos, incumbent.cost, incumbent.source);
+        }
+
+        this.nodes += other.nodes;
+        this.prunedByBound += other.prunedByBound;
+        this.prunedExact += other.prunedExact;
+        this.leaves += other.leaves;
+        this.prunedByLagrangian += other.prunedByLagrangian;
+        this.lagrangianCalls += other.lagrangianCalls;
+        this.prunedByTransposition += other.prunedByTransposition;
+        this.excludedChildren += other.excludedChildren;
+        this.dominatedChildren += other.dominatedChildren;
+        this.solutionCalls += other.solutionCalls;
+        this.improvements += other.improvements;
+        this.rootLowerBound = Math.max(this.rootLowerBound, other.rootLowerBound);
+        this.cancelled |= other.cancelled;
+        if (this.jfrFailure == null) {
+            this.jfrFailure = other.jfrFailure;
+        }
+    }
+
+    /**
+     * The counters in the order setCounters() expects, to send them to another process.
+     *
+     * @return COUNTERS values
+     * O(1)
+     */
+    long[] counters() {
+        return new long[]{
+                this.nodes, this.prunedByBound, this.prunedExact, this.leaves, this.prunedByLagrangian,
+                this.lagrangianCalls, this.prunedByTransposition, this.excludedChildren, this.dominatedChildren,
+                this.solutionCalls, this.improvements, this.rootLowerBound,
+        };
+    }
+
+    /**
+     * Replaces the counters with those of counters() of another process. (the timeline is kept)
+     *
+     * @param long[] counters
+     * O(1)
+     */
+    void setCounters(long[] counters) {
+        this.nodes = counters[0];
+        this.prunedByBound = counters[1];
+        this.prunedExact = counters[2];
+        this.leaves = counters[3];
+        this.prunedByLagrangian = counters[4];
+        this.lagrangianCalls = counters[5];
+        this.prunedByTransposition = counters[6];
+        this.excludedChildren = counters[7];
+        this.dominatedChildren = counters[8];
+        this.solutionCalls = counters[9];
+        this.improvements = counters[10];
+        this.rootLowerBound = counters[11];
+    }
+
+    /**
+     * Appends an improvement to the timeline.
+     *
+     * @param long   nanos
+     * @param int    cost
+     * @param String source
+     * O(1) amortized
+     */
+    synchronized void addIncumbent(long nanos, int cost, String source) {
+        this.timeline.add(new Incumbent(nanos, cost, source));
+    }
+
+    /**
+     * @return A copy of the incumbent timeline
+     * O(improvements)
+     */
+    public synchronized List<Incumbent> getTimeline() {
+        return new ArrayList<Incumbent>(this.timeline);
+    }
+
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    public long getPrunedByBound() {
+        return this.prunedByBound;
+    }
+
+    public long getPrunedExact() {
+        return this.prunedExact;
+    }
+
+    public long getLeaves() {
+        return this.leaves;
+    }
+
+    public long getPrunedByLagrangian() {
+        return this.prunedByLagrangian;
+    }
+
+    public long getLagrangianCalls() {
+        return this.lagrangianCalls;
+    }
+
+    public long getPrunedByTransposition() {
+        return this.prunedByTransposition;
+    }
+
+    public long getExcludedChildren() {
+        return this.excludedChildren;
+    }
+
+    public long getDominatedChildren() {
+        return this.dominatedChildren;
+    }
+
+    public long getSolutionCalls() {
+        return this.solutionCalls;
+    }
+
+    public long getImprovements() {
+        return this.improvements;
+    }
+
+    public long getRootLowerBound() {
+        return this.rootLowerBound;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Counters and timeline, one incumbent per line with the gap to the root lower bound.
+     *
+     * O(improvements)
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("nodes=").append(this.nodes)
+                .append(" pruned(bound=").append(this.prunedByBound)
+                .append(", exact=").append(this.prunedExact)
+                .append(", lagrangian=").append(this.prunedByLagrangian)
+                .append(", transposition=").append(this.prunedByTransposition)
+                .append(") leaves=").append(this.leaves)
+                .append(" excluded=").append(this.excludedChildren)
+                .append(" dominated=").append(this.dominatedChildren)
+                .append(" lagrangianCalls=").append(this.lagrangianCalls)
+                .append(" solutions=").append(this.improvements).append('/').append(this.solutionCalls)
+                .append(" rootLowerBound=").append(this.rootLowerBound);
+        if (this.cancelled) {
+            sb.append(" cancelled");
+        }
+        if (this.jfrFailure != null) {
+            sb.append(" jfrDisabled(").append(this.jfrFailure).append(')');
+        }
+
+        for (Incumbent incumbent : this.getTimeline()) {
+            sb.append(String.format("%n  %10.3f ms %10d %-10s", incumbent.nanos / 1e6, incumbent.cost, incumbent.source));
+            if (this.rootLowerBound >= 0 && incumbent.cost > 0) {
+                sb.append(String.format(" gap %.2f%%", 100.0 * (incumbent.cost - this.rootLowerBound) / incumbent.cost));
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Memory-bounded cache of (depth, load of every facility) -> cheapest partial costs searched so far.
+ *
+ * Two nodes at the same depth have assigned the same customers (the first depth ones in branching order). If their
+ * facilities also carry the same loads, every completion costs the same on top of their partial costs, because the
+ * opening costs only depend on the final loads. So a node whose partial costs are strictly higher than those of an
+ * equal node searched before is dominated and can be pruned. (Strictly, so that the rule maps every pruned solution
+ * to a cheaper one like the rules of Dominance.)
+ *
+ * The table is set associative with WAYS entries per set and clock eviction within a set: a hit marks the entry as
+ * referenced, a new entry replaces the first unreferenced one the hand of the set reaches and clears the marks it
+ * passes. Keys are verified against the stored load vector, so hash collisions never prune.
+ */
+class TranspositionTable {
+
+    /**
+     * Entries per set.
+     */
+    static final int WAYS = 4;
+
+    /*
+     * Multiplier per facility for the incremental hash of a load vector, see weight()
+     */
+    private final long[] weights;
+
+    /*
+     * Number of facilities and the mask of the set index
+     */
+    private final int facilities;
+    private final int mask;
+
+    /*
+     * Per entry: hash of the load vector, depth, partial costs, load vector, clock mark and generation
+     */
+    private final long[] hashes;
+    private final int[] depths;
+    private final long[] costs;
+    private final int[] loads;
+    private final boolean[] referenced;
+    private final int[] generations;
+
+    /*
+     * Clock hand of every set
+     */
+    private final byte[] hands;
+
+    /*
+     * Entries of older generations are empty, so clear() doesn't need to touch them
+     */
+    private int generation = 1;
+
+    /**
+     * @param int  facilities
+     * @param long maxBytes
+     * O(maxBytes)
+     */
+    TranspositionTable(int facilities, long maxBytes) {
+        this.facilities = facilities;
+
+        // the weights are fixed, hashes only have to be equal within one table
+        Random random = new Random(facilities);
+        this.weights = new long[facilities];
+        for (int f = 0; f < facilities; f++) {
+            this.weights[f] = random.nextLong() | 1;
+        }
+
+        // hash + depth + costs + loads + mark + generation (+ one hand per set)
+        long bytesPerEntry = 8 + 4 + 8 + 4L * facilities + 1 + 4 + 1;
+        long sets = Math.max(1, Math.min(Integer.MAX_VALUE / Math.max(1, facilities) / WAYS, maxBytes / bytesPerEntry / WAYS));
+        int bits = 63 - Long.numberOfLeadingZeros(sets);
+        this.mask = (1 << bits) - 1;
+
+        int entries = (1 << bits) * WAYS;
+        this.hashes = new long[entries];
+        this.depths = new int[entries];
+        this.costs = new long[entries];
+        this.loads = new int[entries * facilities];
+        this.referenced = new boolean[entries];
+        this.generations = new int[entries];
+        this.hands = new byte[1 << bits];
+    }
+
+    /**
+     * Change of the hash of a load vector when the load of facility f changes by delta.
+     *
+     * @param int f
+     * @param int delta
+     * O(1)
+     */
+    long weight(int f, int delta) {
+        return delta * this.weights[f];
+    }
+
+    /**
+     * Empties the table.
+     *
+     * O(1), O(entries) every 2^32 calls
+     */
+    void clear() {
+        if (++this.generation == 0) {
+            Arrays.fill(this.generations, 0);
+            this.generation = 1;
+        }
+    }
+
+    /**
+     * Looks the node up and remembers it if it is not dominated.
+     *
+     * @param long  hash (sum of weight(f, loads[f]))
+     * @param int   depth
+     * @param int[] loads
+     * @param long  cost (partial costs of the node)
+     * @return Whether an equal node with strictly lower partial costs was searched before
+     * O(WAYS * facilities)
+     */
+    boolean dominated(long hash, int depth, int[] loads, long cost) {
+        long mixed = (hash ^ depth * 0x9E3779B97F4A7C15L) * 0xC2B2AE3D27D4EB4FL;
+        int set = (int) (mixed >>> 32) & this.mask;
+        int first = set * WAYS;
+
+        int free = -1;
+        for (int slot = first; slot < first + WAYS; slot++) {
+            if (this.generations[slot] != this.generation) {
+                free = free < 0 ? slot : free;
+                continue;
+            }
+            if (this.hashes[slot] != hash || this.depths[slot] != depth || !this.equalLoads(slot, loads)) { continue; }
+
+            this.referenced[slot] = true;
+            if (this.costs[slot] < cost) { return true; }
+
+            this.costs[slot] = cost;
+            return false;
+        }
+
+        int slot = free >= 0 ? free : this.evict(set);
+        this.hashes[slot] = hash;
+        this.depths[slot] = depth;
+        this.costs[slot] = cost;
+        System.arraycopy(loads, 0, this.loads, slot * this.facilities, this.facilities);
+        this.referenced[slot] = false;
+        this.generations[slot] = this.generation;
+
+        return false;
+    }
+
+    /**
+     * Clock eviction: the first entry without mark from the hand on, marks passed on the way are cleared.
+     *
+     * @param int set
+     * @return The slot to reuse
+     * O(WAYS)
+     */
+    private int evict(int set) {
+        while (true) {
+            int slot = set * WAYS + this.hands[set];
+            this.hands[set] = (byte) ((this.hands[set] + 1) % WAYS);
+
+            if (!this.referenced[slot]) { return slot; }
+            this.referenced[slot] = false;
+        }
+    }
+
+    /**
+     * @param int   slot
+     * @param int[] loads
+     * O(facilities)
+     */
+    private boolean equalLoads(int slot, int[] loads) {
+        int base = slot * this.facilities;
+        for (int f = 0; f < this.facilities; f++) {
+            if (this.loads[base + f] != loads[f]) { return false; }
+        }
+
+        return true;
+    }
+}
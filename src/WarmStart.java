@@ -0,0 +1,299 @@
+package ad2.ss17.cflp;
+
+import java.util.Arrays;
+
+/**
+ * Builds a good first incumbent before the tree search starts.
+ *
+ * 1. Construction: customers in decreasing bandwidth go to the facility with the smallest marginal costs
+ *    (distance + increase of the opening costs at the load so far), unlike the upper bound of the search which
+ *    sends everybody to the closest facility regardless of the levels that forces.
+ * 2. Greedy drop/add of facilities: close an open facility (its customers move to their cheapest other facility)
+ *    or open a closed one (customers that are closer to it move there) as long as that reduces the costs.
+ * 3. Local search: shift single customers and swap pairs of customers between facilities until no move improves.
+ *
+ * Every move is evaluated by a MoveEvaluator in O(1) before it is applied. The heuristic polls the token of the search
+ * between single facilities and customers and stops improving at the end of its own time budget or after MAX_ROUNDS
+ * rounds of stages 2 and 3, the solution is complete from the end of the construction on.
+ */
+class WarmStart {
+
+    /*
+     * Maximum number of customers for the O(customers^2) swap neighbourhood
+     */
+    private static final int MAX_SWAP_CUSTOMERS = 2000;
+
+    /*
+     * Maximum number of rounds of drop/add and local search
+     */
+    private static final int MAX_ROUNDS = 100;
+
+    /**
+     * Instance to solve.
+     */
+    private final CFLPInstance cflp;
+
+    /*
+     * The assignment, complete after construct()
+     */
+    private final MoveEvaluator moves;
+
+    /*
+     * Stops the heuristic together with the search
+     */
+    private final CancellationToken token;
+
+    /*
+     * System.nanoTime() at which the heuristic stops improving, only if hasDeadline
+     */
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    /**
+     * @param CFLPInstance      cflp
+     * @param CancellationToken token
+     * @param long              budgetNanos (time for the whole heuristic, 0 for no limit)
+     * O(customers + facilities)
+     */
+    WarmStart(CFLPInstance cflp, CancellationToken token, long budgetNanos) {
+        this.cflp = cflp;
+        this.moves = new MoveEvaluator(cflp);
+        this.token = token;
+        this.deadline = System.nanoTime() + budgetNanos;
+        this.hasDeadline = budgetNanos > 0;
+    }
+
+    /**
+     * Runs all three stages.
+     *
+     * @return The costs of the solution found, see solution(), Long.MAX_VALUE if stopped during the construction
+     * O(customers * facilities^2) for add/drop plus O(customers^2) per swap pass
+     */
+    long solve() {
+        if (!this.construct()) { return Long.MAX_VALUE; }
+
+        boolean improved = true;
+        for (int round = 0; improved && round < MAX_ROUNDS && !this.stopped(); round++) {
+            improved = this.dropFacilities() | this.addFacilities();
+            improved |= this.localSearch();
+        }
+
+        return this.cost();
+    }
+
+    /**
+     * Whether the heuristic has to stop: the search was cancelled or the budget is used up.
+     *
+     * O(1)
+     */
+    private boolean stopped() {
+        // compared as difference, System.nanoTime() may overflow
+        return this.token.check() || (this.hasDeadline && System.nanoTime() - this.deadline >= 0);
+    }
+
+    /**
+     * @return The solution found by solve() (not a copy)
+     * O(1)
+     */
+    int[] solution() {
+        return this.moves.solution();
+    }
+
+    /**
+     * Assigns customers in decreasing bandwidth to the facility with the smallest marginal costs.
+     *
+     * @return Whether every customer was assigned, i.e. the heuristic was not stopped
+     * O(customers * log(customers) + customers * facilities)
+     */
+    private boolean construct() {
+        int n = this.cflp.getNumCustomers();
+
+        // sort customers by decreasing bandwidth (bandwidth in the upper bits, index in the lower ones)
+        long[] order = new long[n];
+        for (int c = 0; c < n; c++) {
+            order[c] = ((long) -this.cflp.bandwidthOf(c) << 32) | c;
+        }
+        Arrays.sort(order);
+
+        for (long key : order) {
+            if (this.stopped()) { return false; }
+
+            int c = (int) key;
+            this.moves.shift(c, this.cheapest(c, -1));
+        }
+
+        return true;
+    }
+
+    /**
+     * Tries to close every open facility, its customers move to their cheapest other facility.
+     *
+     * @return Whether some facility was closed
+     * O(customers * facilities^2)
+     */
+    private boolean dropFacilities() {
+        boolean improved = false;
+
+        for (int f = 0; f < this.cflp.getNumFacilities() && !this.stopped(); f++) {
+            if (this.moves.loadOf(f) == 0 || this.countOpen() < 2) { continue; }
+
+            long before = this.cost();
+            int[] moved = this.customersOf(f);
+            for (int c : moved) {
+                this.moves.shift(c, this.cheapest(c, f));
+            }
+
+            if (this.cost() < before) {
+                improved = true;
+            } else {
+                for (int c : moved) {
+                    this.moves.shift(c, f);
+                }
+            }
+        }
+
+        return improved;
+    }
+
+    /**
+     * Tries to open every closed facility, customers that are closer to it than to their facility move there.
+     *
+     * @return Whether some facility was opened
+     * O(customers * facilities)
+     */
+    private boolean addFacilities() {
+        boolean improved = false;
+        int n = this.cflp.getNumCustomers();
+        int[] moved = new int[n];
+        int[] previous = new int[n];
+
+        for (int g = 0; g < this.cflp.getNumFacilities() && !this.stopped(); g++) {
+            if (this.moves.loadOf(g) > 0) { continue; }
+
+            long before = this.cost();
+            int count = 0;
+            for (int c = 0; c < n; c++) {
+                int f = this.moves.facilityOf(c);
+                if (this.cflp.distance(g, c) < this.cflp.distance(f, c)) {
+                    moved[count] = c;
+                    previous[count++] = f;
+                    this.moves.shift(c, g);
+                }
+            }
+
+            if (this.cost() < before) {
+                improved = true;
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                this.moves.shift(moved[i], previous[i]);
+            }
+        }
+
+        return improved;
+    }
+
+    /**
+     * Shift and swap moves (first improvement) until no move improves.
+     *
+     * @return Whether some move improved the solution
+     * O(customers * facilities + customers^2) per pass
+     */
+    private boolean localSearch() {
+        int n = this.cflp.getNumCustomers();
+        boolean improvedAny = false;
+        boolean improved = true;
+
+        while (improved && !this.stopped()) {
+            improved = false;
+
+            // shift: move one customer to another facility
+            for (int c = 0; c < n && !this.stopped(); c++) {
+                int g = this.cheapest(c, -1);
+                if (this.moves.shiftDelta(c, g) < 0) {
+                    this.moves.shift(c, g);
+                    improved = true;
+                }
+            }
+
+            // swap: exchange the facilities of two customers
+            for (int a = 0; a < n && n <= MAX_SWAP_CUSTOMERS && !this.stopped(); a++) {
+                for (int b = a + 1; b < n; b++) {
+                    if (this.moves.swapDelta(a, b) < 0) {
+                        this.moves.swap(a, b);
+                        improved = true;
+                    }
+                }
+            }
+
+            improvedAny |= improved;
+        }
+
+        return improvedAny;
+    }
+
+    /**
+     * Facility (other than the excluded one) with the smallest marginal costs for customer c. If c is assigned the
+     * costs of leaving its facility are the same for every other one, so the order is the same as unassigned.
+     *
+     * @param int c
+     * @param int excluded (-1 for none)
+     * O(facilities)
+     */
+    private int cheapest(int c, int excluded) {
+        int best = -1;
+        long bestCost = Long.MAX_VALUE;
+
+        for (int f = 0; f < this.cflp.getNumFacilities(); f++) {
+            if (f == excluded) { continue; }
+
+            long cost = this.moves.shiftDelta(c, f);
+            if (cost < bestCost) {
+                best = f;
+                bestCost = cost;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return The customers currently assigned to f
+     * O(customers)
+     */
+    private int[] customersOf(int f) {
+        int count = 0;
+        for (int c = 0; c < this.cflp.getNumCustomers(); c++) {
+            if (this.moves.facilityOf(c) == f) count++;
+        }
+
+        int[] customers = new int[count];
+        for (int c = 0, i = 0; c < this.cflp.getNumCustomers(); c++) {
+            if (this.moves.facilityOf(c) == f) customers[i++] = c;
+        }
+
+        return customers;
+    }
+
+    /**
+     * @return The number of facilities with customers
+     * O(facilities)
+     */
+    private int countOpen() {
+        int open = 0;
+        for (int f = 0; f < this.cflp.getNumFacilities(); f++) {
+            if (this.moves.loadOf(f) > 0) open++;
+        }
+
+        return open;
+    }
+
+    /**
+     * @return The costs of the current (complete) assignment
+     * O(1)
+     */
+    private long cost() {
+        return this.moves.cost();
+    }
+}